@@ -0,0 +1,51 @@
+package com.example.ippi.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+@EnableAsync
+public class AsyncConfig {
+
+    @Value("${feed.executor.pool-size:4}")
+    private int poolSize;
+
+    @Value("${feed.executor.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${feed.stream.pool-size:4}")
+    private int streamPoolSize;
+
+    // タイムライン書き込みなどフィード関連の非同期処理用
+    @Bean(name = "feedTaskExecutor")
+    public Executor feedTaskExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("feed-");
+        // キューが溢れた場合は呼び出し元スレッドで実行し、書き込みを取りこぼさない
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+
+    // SSE配信用（クライアントへの送信のみを行い、接続ごとにスレッドを占有しない）
+    @Bean(name = "feedStreamExecutor")
+    public Executor feedStreamExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(streamPoolSize);
+        executor.setMaxPoolSize(streamPoolSize);
+        executor.setQueueCapacity(Integer.MAX_VALUE);
+        executor.setThreadNamePrefix("feed-stream-");
+        executor.initialize();
+        return executor;
+    }
+}
@@ -5,29 +5,41 @@ import com.example.ippi.dto.CommentRequest;
 import com.example.ippi.dto.FeedItemDTO;
 import com.example.ippi.entity.Activity;
 import com.example.ippi.entity.FeedComment;
-import com.example.ippi.entity.FeedLike;
 import com.example.ippi.entity.User;
 import com.example.ippi.repository.ActivityRepository;
 import com.example.ippi.repository.FeedCommentRepository;
-import com.example.ippi.repository.FeedLikeRepository;
-import com.example.ippi.repository.FollowRepository;
 import com.example.ippi.repository.UserRepository;
+import com.example.ippi.service.DiscoverTimelineService;
+import com.example.ippi.service.FeedEngagementService;
+import com.example.ippi.service.FeedHydrationService;
+import com.example.ippi.service.FeedItemJsonCache;
+import com.example.ippi.service.FeedStreamService;
+import com.example.ippi.service.LikeWriteBuffer;
+import com.example.ippi.service.TimelineService;
+import com.example.ippi.service.UserIdCache;
+import com.example.ippi.util.ActivityTypeFilter;
+import com.example.ippi.util.FeedCursor;
+import com.example.ippi.util.RankedCursor;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/feed")
@@ -38,22 +50,51 @@ public class FeedController {
     private ActivityRepository activityRepository;
 
     @Autowired
-    private FollowRepository followRepository;
+    private UserRepository userRepository;
 
     @Autowired
-    private UserRepository userRepository;
+    private FeedCommentRepository feedCommentRepository;
 
     @Autowired
-    private FeedLikeRepository feedLikeRepository;
+    private FeedHydrationService feedHydrationService;
 
     @Autowired
-    private FeedCommentRepository feedCommentRepository;
+    private TimelineService timelineService;
+
+    @Autowired
+    private FeedEngagementService feedEngagementService;
+
+    @Autowired
+    private FeedStreamService feedStreamService;
+
+    @Autowired
+    private LikeWriteBuffer likeWriteBuffer;
+
+    @Autowired
+    private DiscoverTimelineService discoverTimelineService;
+
+    @Autowired
+    private FeedItemJsonCache feedItemJsonCache;
+
+    @Autowired
+    private UserIdCache userIdCache;
+
+    // 未読件数として数える上限
+    @Value("${feed.unread.count-limit:100}")
+    private int unreadCountLimit;
 
     // フィード取得（フォローしているユーザーのアクティビティ）
+    // cursor を指定した場合はキーセットページング（page は無視）
+    // types / excludeTypes でアクティビティタイプを絞り込む（未指定の場合はアチーブメント以外）
+    // mode=ranked の場合は新しさ・反応・投稿者との近さによるスコア順（cursor によるページングのみ）
     @GetMapping
     public ResponseEntity<?> getFeed(
             @RequestParam(defaultValue = "0") @Min(0) int page,
             @RequestParam(defaultValue = "20") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) List<String> types,
+            @RequestParam(required = false) List<String> excludeTypes,
+            @RequestParam(defaultValue = "latest") String mode,
             Authentication authentication) {
         
         String email = authentication.getName();
@@ -65,80 +106,177 @@ public class FeedController {
 
         User currentUser = currentUserOpt.get();
 
-        // フォローしているユーザーのIDリストを取得
-        List<Long> followingIds = followRepository.findFollowingIdsByUser(currentUser);
-        
-        // 自分自身のIDも追加
-        followingIds.add(currentUser.getId());
-
-        if (followingIds.isEmpty()) {
-            return ResponseEntity.ok(Map.of(
-                "items", new ArrayList<>(),
-                "hasMore", false,
-                "message", "フォローしているユーザーがいません"
-            ));
+        if ("ranked".equals(mode)) {
+            return getRankedFeed(currentUser, size, cursor, types, excludeTypes);
+        }
+        if (!"latest".equals(mode)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Unknown mode: " + mode));
         }
 
-        Pageable pageable = PageRequest.of(page, size);
-        List<Activity> activities = activityRepository.findByUserIdInOrderByCreatedAtDesc(followingIds, pageable);
-
-        // 現在のユーザーがいいねしたアクティビティのIDリスト
-        List<Long> likedActivityIds = feedLikeRepository.findLikedActivityIdsByUser(currentUser);
-
-        // アチーブメントアクティビティを除外
-        List<FeedItemDTO> feedItems = activities.stream()
-            .filter(activity -> !Activity.TYPE_ACHIEVEMENT.equals(activity.getActivityType()))
-            .map(activity -> {
-            User user = activity.getUser();
-            FeedItemDTO dto = new FeedItemDTO(
-                activity.getId(),
-                user.getId(),
-                user.getName(),
-                user.getCustomId(),
-                user.getProfileImageUrl(),
-                activity.getActivityType(),
-                activity.getMessage(),
-                activity.getRelatedData(),
-                activity.getCreatedAt()
-            );
-            
-            // いいね数とコメント数を設定
-            dto.setLikeCount(feedLikeRepository.countByActivity(activity));
-            dto.setLiked(likedActivityIds.contains(activity.getId()));
-            dto.setCommentCount(feedCommentRepository.countByActivity(activity));
-            
-            // コメントリストを取得
-            List<FeedComment> comments = feedCommentRepository.findByActivityOrderByCreatedAtAsc(activity);
-            List<CommentDTO> commentDTOs = comments.stream().map(comment -> 
-                new CommentDTO(
-                    comment.getId(),
-                    comment.getUser().getId(),
-                    comment.getUser().getName(),
-                    comment.getUser().getProfileImageUrl(),
-                    comment.getText(),
-                    comment.getCreatedAt()
-                )
-            ).collect(Collectors.toList());
-            dto.setComments(commentDTOs);
-            
-            return dto;
-        }).collect(Collectors.toList());
+        FeedCursor feedCursor = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                feedCursor = FeedCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Invalid cursor"));
+            }
+        }
 
-        // 次のページがあるかどうか
-        boolean hasMore = activities.size() == size;
+        ActivityTypeFilter filter;
+        try {
+            filter = ActivityTypeFilter.of(types, excludeTypes, ActivityTypeFilter.HOME_DEFAULT);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+
+        // フォロー中ユーザーと自分のアクティビティはタイムラインに書き込み済み
+        List<FeedItemDTO> feedItems = timelineService.readHomeTimeline(currentUser.getId(), filter, feedCursor, page, size);
+        feedHydrationService.hydrate(feedItems, currentUser.getId());
+
+        return buildPageResponse(feedItems, size);
+    }
+
+    private ResponseEntity<?> getRankedFeed(User currentUser, int size, String cursor,
+                                            List<String> types, List<String> excludeTypes) {
+        RankedCursor rankedCursor = null;
+        ActivityTypeFilter filter;
+        try {
+            if (cursor != null && !cursor.isEmpty()) {
+                rankedCursor = RankedCursor.decode(cursor);
+            }
+            filter = ActivityTypeFilter.of(types, excludeTypes, ActivityTypeFilter.HOME_DEFAULT);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+
+        TimelineService.RankedPage rankedPage = timelineService.readRankedTimeline(
+            currentUser.getId(), filter, rankedCursor, size);
+        feedHydrationService.hydrate(rankedPage.items(), currentUser.getId());
+
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("hasMore", rankedPage.nextCursor() != null);
+        fields.put("nextCursor", rankedPage.nextCursor() != null ? rankedPage.nextCursor().encode() : null);
+        return jsonResponse(rankedPage.items(), fields);
+    }
+
+    // 新着アイテムの取得（cursor はクライアントが保持しているフィード先頭のアイテムを指す）
+    // 新しい順に最大 size 件を返す。hasMore が true の場合は新着が size 件を超えているため /feed から取り直す
+    @GetMapping("/since")
+    public ResponseEntity<?> getFeedSince(
+            @RequestParam String cursor,
+            @RequestParam(defaultValue = "50") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) List<String> types,
+            @RequestParam(required = false) List<String> excludeTypes,
+            Authentication authentication) {
+
+        String email = authentication.getName();
+        Optional<User> currentUserOpt = userRepository.findByEmail(email);
+
+        if (currentUserOpt.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "User not found"));
+        }
+
+        FeedCursor headCursor;
+        ActivityTypeFilter filter;
+        try {
+            headCursor = FeedCursor.decode(cursor);
+            filter = ActivityTypeFilter.of(types, excludeTypes, ActivityTypeFilter.HOME_DEFAULT);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+
+        Long currentUserId = currentUserOpt.get().getId();
+        List<FeedItemDTO> feedItems = timelineService.readSince(currentUserId, filter, headCursor, size + 1);
+        boolean hasMore = feedItems.size() > size;
+        if (hasMore) {
+            feedItems = new ArrayList<>(feedItems.subList(0, size));
+        }
+        feedHydrationService.hydrate(feedItems, currentUserId);
+
+        if (!feedItems.isEmpty()) {
+            FeedItemDTO newest = feedItems.get(0);
+            headCursor = new FeedCursor(newest.getCreatedAt(), newest.getId());
+        }
+
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("hasMore", hasMore);
+        fields.put("headCursor", headCursor.encode());
+        return jsonResponse(feedItems, fields);
+    }
+
+    // 未読件数の取得（アイテムは組み立てず件数のみ。上限を超える場合は上限値と capped: true を返す）
+    @GetMapping("/unread-count")
+    public ResponseEntity<?> getUnreadCount(
+            @RequestParam String cursor,
+            @RequestParam(required = false) List<String> types,
+            @RequestParam(required = false) List<String> excludeTypes,
+            Authentication authentication) {
+
+        String email = authentication.getName();
+        Optional<User> currentUserOpt = userRepository.findByEmail(email);
+
+        if (currentUserOpt.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "User not found"));
+        }
+
+        FeedCursor headCursor;
+        ActivityTypeFilter filter;
+        try {
+            headCursor = FeedCursor.decode(cursor);
+            filter = ActivityTypeFilter.of(types, excludeTypes, ActivityTypeFilter.HOME_DEFAULT);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+
+        int count = timelineService.countUnread(currentUserOpt.get().getId(), filter, headCursor, unreadCountLimit);
 
         return ResponseEntity.ok(Map.of(
-            "items", feedItems,
-            "hasMore", hasMore
+            "count", count,
+            "capped", count >= unreadCountLimit
         ));
     }
 
+    // ディスカバー（全ユーザーの最近のアクティビティ、フォローしていなくても表示される）
+    // 定期的に作成したスナップショットから返すため、数十秒程度遅れて反映される。未ログインでも取得できる
+    @GetMapping("/discover")
+    public ResponseEntity<?> getDiscover(
+            @RequestParam(defaultValue = "20") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) String cursor,
+            Authentication authentication) {
+
+        FeedCursor feedCursor = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                feedCursor = FeedCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Invalid cursor"));
+            }
+        }
+
+        Long currentUserId = authentication != null ? userIdCache.idOf(authentication.getName()) : null;
+
+        List<FeedItemDTO> feedItems = discoverTimelineService.read(feedCursor, size, currentUserId);
+        return buildPageResponse(feedItems, size);
+    }
+
+    // フィードのライブ配信（Server-Sent Events）
+    // フォロー中ユーザーと自分の新しいアクティビティを "activity" イベントとして送信する
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamFeed(Authentication authentication) {
+        return feedStreamService.subscribe(authentication.getName());
+    }
+
     // 特定ユーザーのアクティビティ取得
+    // cursor を指定した場合はキーセットページング（page は無視）
+    // types / excludeTypes でアクティビティタイプを絞り込む（未指定の場合はすべて）
     @GetMapping("/user/{userId}")
     public ResponseEntity<?> getUserActivities(
             @PathVariable Long userId,
-            @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(defaultValue = "0") @Min(0) int page,
+            @RequestParam(defaultValue = "20") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) List<String> types,
+            @RequestParam(required = false) List<String> excludeTypes,
             Authentication authentication) {
         
         Optional<User> targetUserOpt = userRepository.findById(userId);
@@ -147,72 +285,91 @@ public class FeedController {
             return ResponseEntity.badRequest().body(Map.of("error", "User not found"));
         }
 
-        Pageable pageable = PageRequest.of(page, size);
-        List<Activity> activities = activityRepository.findByUserIdOrderByCreatedAtDesc(userId, pageable);
+        ActivityTypeFilter filter;
+        try {
+            filter = ActivityTypeFilter.of(types, excludeTypes, ActivityTypeFilter.ALL);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+
+        List<FeedItemDTO> feedItems;
+        if (filter.isEmpty()) {
+            feedItems = new ArrayList<>();
+        } else if (cursor != null && !cursor.isEmpty()) {
+            FeedCursor feedCursor;
+            try {
+                feedCursor = FeedCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Invalid cursor"));
+            }
+            feedItems = activityRepository.findFeedItemsByUserIdBefore(
+                userId, filter.getTypes(), feedCursor.getCreatedAt(), feedCursor.getId(), PageRequest.of(0, size));
+        } else {
+            Pageable pageable = PageRequest.of(page, size);
+            feedItems = activityRepository.findFeedItemsByUserId(userId, filter.getTypes(), pageable);
+        }
 
-        User targetUser = targetUserOpt.get();
-        
         // 現在のユーザー情報を取得
         String email = authentication.getName();
-        Optional<User> currentUserOpt = userRepository.findByEmail(email);
-        List<Long> likedActivityIds = new ArrayList<>();
-        if (currentUserOpt.isPresent()) {
-            likedActivityIds = feedLikeRepository.findLikedActivityIdsByUser(currentUserOpt.get());
+        Long currentUserId = userRepository.findByEmail(email).map(User::getId).orElse(null);
+
+        feedHydrationService.hydrate(feedItems, currentUserId);
+
+        return buildPageResponse(feedItems, size);
+    }
+
+    /**
+     * ページングレスポンスを作成
+     * nextCursor は取得したページの最後のアクティビティを指す
+     */
+    private ResponseEntity<byte[]> buildPageResponse(List<FeedItemDTO> feedItems, int size) {
+        // 次のページがあるかどうか
+        boolean hasMore = feedItems.size() == size;
+
+        String nextCursor = null;
+        if (hasMore) {
+            FeedItemDTO last = feedItems.get(feedItems.size() - 1);
+            nextCursor = new FeedCursor(last.getCreatedAt(), last.getId()).encode();
         }
-        
-        List<Long> finalLikedActivityIds = likedActivityIds;
-        List<FeedItemDTO> feedItems = activities.stream().map(activity -> {
-            FeedItemDTO dto = new FeedItemDTO(
-                activity.getId(),
-                targetUser.getId(),
-                targetUser.getName(),
-                targetUser.getCustomId(),
-                targetUser.getProfileImageUrl(),
-                activity.getActivityType(),
-                activity.getMessage(),
-                activity.getRelatedData(),
-                activity.getCreatedAt()
-            );
-            
-            // いいね数とコメント数を設定
-            dto.setLikeCount(feedLikeRepository.countByActivity(activity));
-            dto.setLiked(finalLikedActivityIds.contains(activity.getId()));
-            dto.setCommentCount(feedCommentRepository.countByActivity(activity));
-            
-            // コメントリストを取得
-            List<FeedComment> comments = feedCommentRepository.findByActivityOrderByCreatedAtAsc(activity);
-            List<CommentDTO> commentDTOs = comments.stream().map(comment -> 
-                new CommentDTO(
-                    comment.getId(),
-                    comment.getUser().getId(),
-                    comment.getUser().getName(),
-                    comment.getUser().getProfileImageUrl(),
-                    comment.getText(),
-                    comment.getCreatedAt()
-                )
-            ).collect(Collectors.toList());
-            dto.setComments(commentDTOs);
-            
-            return dto;
-        }).collect(Collectors.toList());
-
-        boolean hasMore = activities.size() == size;
 
-        return ResponseEntity.ok(Map.of(
-            "items", feedItems,
-            "hasMore", hasMore
-        ));
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("hasMore", hasMore);
+        fields.put("nextCursor", nextCursor);
+        return jsonResponse(feedItems, fields);
+    }
+
+    /**
+     * フィードアイテムを含むレスポンスを作成
+     * アイテムは FeedItemJsonCache に出力済みのJSONを連結する（{"items":[...], fields...}）
+     */
+    private ResponseEntity<byte[]> jsonResponse(List<FeedItemDTO> feedItems, Map<String, Object> fields) {
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(feedItemJsonCache.writePage(feedItems, fields));
+    }
+
+    /**
+     * いいね・コメント対象のアクティビティを取得
+     * activities は (id, created_at) で分割されており、ID だけの取得はすべての月のパーティションを引くため、
+     * フィードアイテムの createdAt が渡された場合はその月のパーティションだけを読む
+     */
+    private Optional<Activity> findActivity(Long feedId, Long createdAt) {
+        if (createdAt != null) {
+            return activityRepository.findByIdAndCreatedAt(feedId, createdAt);
+        }
+        return activityRepository.findById(feedId);
     }
 
     // いいねを追加
     @PostMapping("/{feedId}/like")
     public ResponseEntity<?> likeActivity(
             @PathVariable Long feedId,
+            @RequestParam(required = false) Long createdAt,
             Authentication authentication) {
         
         String email = authentication.getName();
         Optional<User> currentUserOpt = userRepository.findByEmail(email);
-        Optional<Activity> activityOpt = activityRepository.findById(feedId);
+        Optional<Activity> activityOpt = findActivity(feedId, createdAt);
 
         if (currentUserOpt.isEmpty() || activityOpt.isEmpty()) {
             return ResponseEntity.badRequest().body(Map.of("error", "User or Activity not found"));
@@ -221,15 +378,10 @@ public class FeedController {
         User currentUser = currentUserOpt.get();
         Activity activity = activityOpt.get();
 
-        // 既にいいねしている場合は何もしない
-        if (feedLikeRepository.existsByActivityAndUser(activity, currentUser)) {
-            return ResponseEntity.ok(Map.of("message", "Already liked"));
-        }
-
-        FeedLike feedLike = new FeedLike(activity, currentUser, System.currentTimeMillis());
-        feedLikeRepository.save(feedLike);
+        // 書き込みはまとめて行う（既にいいねしている場合は書き込み時に無視される）
+        likeWriteBuffer.like(activity.getId(), currentUser.getId());
 
-        long likeCount = feedLikeRepository.countByActivity(activity);
+        long likeCount = likeWriteBuffer.likeCountOf(activity.getId(), activity.getLikeCount());
         
         return ResponseEntity.ok(Map.of(
             "success", true,
@@ -241,11 +393,12 @@ public class FeedController {
     @PostMapping("/{feedId}/unlike")
     public ResponseEntity<?> unlikeActivity(
             @PathVariable Long feedId,
+            @RequestParam(required = false) Long createdAt,
             Authentication authentication) {
         
         String email = authentication.getName();
         Optional<User> currentUserOpt = userRepository.findByEmail(email);
-        Optional<Activity> activityOpt = activityRepository.findById(feedId);
+        Optional<Activity> activityOpt = findActivity(feedId, createdAt);
 
         if (currentUserOpt.isEmpty() || activityOpt.isEmpty()) {
             return ResponseEntity.badRequest().body(Map.of("error", "User or Activity not found"));
@@ -254,13 +407,9 @@ public class FeedController {
         User currentUser = currentUserOpt.get();
         Activity activity = activityOpt.get();
 
-        Optional<FeedLike> feedLikeOpt = feedLikeRepository.findByActivityAndUser(activity, currentUser);
-        
-        if (feedLikeOpt.isPresent()) {
-            feedLikeRepository.delete(feedLikeOpt.get());
-        }
+        likeWriteBuffer.unlike(activity.getId(), currentUser.getId());
 
-        long likeCount = feedLikeRepository.countByActivity(activity);
+        long likeCount = likeWriteBuffer.likeCountOf(activity.getId(), activity.getLikeCount());
         
         return ResponseEntity.ok(Map.of(
             "success", true,
@@ -268,16 +417,52 @@ public class FeedController {
         ));
     }
 
+    // コメント一覧を新しい順に取得（フィードには最新数件のみ含まれるため、それ以前はこちらで取得）
+    @GetMapping("/{feedId}/comments")
+    public ResponseEntity<?> getComments(
+            @PathVariable Long feedId,
+            @RequestParam(defaultValue = "20") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) String cursor) {
+
+        List<CommentDTO> items;
+        if (cursor != null && !cursor.isEmpty()) {
+            FeedCursor commentCursor;
+            try {
+                commentCursor = FeedCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Invalid cursor"));
+            }
+            items = feedCommentRepository.findPageByActivityIdBefore(
+                feedId, commentCursor.getCreatedAt(), commentCursor.getId(), PageRequest.of(0, size));
+        } else {
+            items = feedCommentRepository.findPageByActivityId(feedId, PageRequest.of(0, size));
+        }
+
+        boolean hasMore = items.size() == size;
+        String nextCursor = null;
+        if (hasMore) {
+            CommentDTO last = items.get(items.size() - 1);
+            nextCursor = new FeedCursor(last.getCreatedAt(), last.getId()).encode();
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("items", items);
+        response.put("hasMore", hasMore);
+        response.put("nextCursor", nextCursor);
+        return ResponseEntity.ok(response);
+    }
+
     // コメントを追加
     @PostMapping("/{feedId}/comments")
     public ResponseEntity<?> addComment(
             @PathVariable Long feedId,
             @Valid @RequestBody CommentRequest request,
+            @RequestParam(required = false) Long createdAt,
             Authentication authentication) {
         
         String email = authentication.getName();
         Optional<User> currentUserOpt = userRepository.findByEmail(email);
-        Optional<Activity> activityOpt = activityRepository.findById(feedId);
+        Optional<Activity> activityOpt = findActivity(feedId, createdAt);
 
         if (currentUserOpt.isEmpty() || activityOpt.isEmpty()) {
             return ResponseEntity.badRequest().body(Map.of("error", "User or Activity not found"));
@@ -288,8 +473,7 @@ public class FeedController {
         User currentUser = currentUserOpt.get();
         Activity activity = activityOpt.get();
 
-        FeedComment comment = new FeedComment(activity, currentUser, text.trim(), System.currentTimeMillis());
-        feedCommentRepository.save(comment);
+        FeedComment comment = feedEngagementService.addComment(activity, currentUser, text.trim());
 
         CommentDTO commentDTO = new CommentDTO(
             comment.getId(),
@@ -326,7 +510,7 @@ public class FeedController {
             return ResponseEntity.status(403).body(Map.of("error", "Not authorized to delete this comment"));
         }
 
-        feedCommentRepository.delete(comment);
+        feedEngagementService.deleteComment(comment);
         
         return ResponseEntity.ok(Map.of("success", true));
     }
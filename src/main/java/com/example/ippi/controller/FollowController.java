@@ -1,25 +1,33 @@
 package com.example.ippi.controller;
 
-import com.example.ippi.dto.FollowStatsDTO;
-import com.example.ippi.dto.FollowUserDTO;
-import com.example.ippi.entity.Follow;
+import com.example.ippi.dto.FollowEntry;
 import com.example.ippi.entity.User;
 import com.example.ippi.repository.FollowRepository;
 import com.example.ippi.repository.UserRepository;
 import com.example.ippi.service.ActivityService;
+import com.example.ippi.service.FollowListAssembler;
+import com.example.ippi.service.FollowService;
+import com.example.ippi.service.TimelineService;
+import com.example.ippi.util.FeedCursor;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/follow")
+@Validated
 public class FollowController {
 
     @Autowired
@@ -31,6 +39,19 @@ public class FollowController {
     @Autowired
     private ActivityService activityService;
 
+    @Autowired
+    private TimelineService timelineService;
+
+    @Autowired
+    private FollowListAssembler followListAssembler;
+
+    @Autowired
+    private FollowService followService;
+
+    // all=true で一覧を取得する場合の上限件数
+    @Value("${follow.list.max-unpaged:1000}")
+    private int maxUnpagedFollows;
+
     // フォローする
     @PostMapping("/{userId}")
     public ResponseEntity<?> followUser(@PathVariable Long userId, Authentication authentication) {
@@ -50,14 +71,13 @@ public class FollowController {
             return ResponseEntity.badRequest().body(Map.of("error", "Cannot follow yourself"));
         }
 
-        // 既にフォローしているか確認
-        if (followRepository.existsByFollowerAndFollowing(currentUser, targetUser)) {
+        // フォロー作成（既にフォローしている場合は何もしない）
+        if (!followService.follow(currentUser.getId(), targetUser.getId())) {
             return ResponseEntity.badRequest().body(Map.of("error", "Already following this user"));
         }
 
-        // フォロー作成
-        Follow follow = new Follow(currentUser, targetUser, System.currentTimeMillis());
-        followRepository.save(follow);
+        // 相手の最近のアクティビティを自分のタイムラインに取り込む
+        timelineService.backfill(currentUser.getId(), targetUser.getId());
 
         // フォローされたユーザーのフィードにアクティビティを作成
         activityService.createFollowedActivity(targetUser, currentUser);
@@ -65,7 +85,7 @@ public class FollowController {
         Map<String, Object> response = new HashMap<>();
         response.put("success", true);
         response.put("message", "Successfully followed user");
-        response.put("followersCount", followRepository.countByFollowing(targetUser));
+        response.put("followersCount", followService.getFollowersCount(targetUser.getId()));
 
         return ResponseEntity.ok(response);
     }
@@ -84,17 +104,20 @@ public class FollowController {
         User currentUser = currentUserOpt.get();
         User targetUser = targetUserOpt.get();
 
-        Optional<Follow> followOpt = followRepository.findByFollowerAndFollowing(currentUser, targetUser);
-        if (followOpt.isEmpty()) {
+        if (!followService.unfollow(currentUser.getId(), targetUser.getId())) {
             return ResponseEntity.badRequest().body(Map.of("error", "Not following this user"));
         }
 
-        followRepository.delete(followOpt.get());
+        // 相手のアクティビティを自分のタイムラインから削除
+        timelineService.prune(currentUser.getId(), targetUser.getId());
+
+        // 相手のフィードのフォローされた時のアクティビティから自分を外す
+        activityService.removeFollowedActivity(targetUser.getId(), currentUser.getId());
 
         Map<String, Object> response = new HashMap<>();
         response.put("success", true);
         response.put("message", "Successfully unfollowed user");
-        response.put("followersCount", followRepository.countByFollowing(targetUser));
+        response.put("followersCount", followService.getFollowersCount(targetUser.getId()));
 
         return ResponseEntity.ok(response);
     }
@@ -103,98 +126,98 @@ public class FollowController {
     @GetMapping("/stats/{userId}")
     public ResponseEntity<?> getFollowStats(@PathVariable Long userId, Authentication authentication) {
         String email = authentication.getName();
-        Optional<User> currentUserOpt = userRepository.findByEmail(email);
-        Optional<User> targetUserOpt = userRepository.findById(userId);
+        Long currentUserId = userRepository.findByEmail(email).map(User::getId).orElse(null);
 
-        if (targetUserOpt.isEmpty()) {
+        if (!userRepository.existsById(userId)) {
             return ResponseEntity.badRequest().body(Map.of("error", "User not found"));
         }
 
-        User targetUser = targetUserOpt.get();
-        long followersCount = followRepository.countByFollowing(targetUser);
-        long followingCount = followRepository.countByFollower(targetUser);
-
-        boolean isFollowing = false;
-        if (currentUserOpt.isPresent()) {
-            User currentUser = currentUserOpt.get();
-            isFollowing = followRepository.existsByFollowerAndFollowing(currentUser, targetUser);
-        }
-
-        return ResponseEntity.ok(new FollowStatsDTO(followersCount, followingCount, isFollowing));
+        // フォロワー数・フォロー中の数は follow_counts から取得
+        return ResponseEntity.ok(followService.getStats(userId, currentUserId));
     }
 
-    // フォロワー一覧を取得
+    // フォロワー一覧を取得（フォローされた新しい順）
+    // cursor を指定した場合はキーセットページングで続きを取得
+    // all=true の場合はページングせず配列で返す（従来の形式、最大 follow.list.max-unpaged 件）
     @GetMapping("/followers/{userId}")
-    public ResponseEntity<?> getFollowers(@PathVariable Long userId, @org.springframework.lang.Nullable Authentication authentication) {
-        final Optional<User> currentUserOpt;
-        if (authentication != null) {
-            String email = authentication.getName();
-            currentUserOpt = userRepository.findByEmail(email);
-        } else {
-            currentUserOpt = Optional.empty();
-        }
-        Optional<User> targetUserOpt = userRepository.findById(userId);
+    public ResponseEntity<?> getFollowers(
+            @PathVariable Long userId,
+            @RequestParam(defaultValue = "20") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean all,
+            @org.springframework.lang.Nullable Authentication authentication) {
+        return getFollowList(userId, size, cursor, all, authentication, true);
+    }
 
-        if (targetUserOpt.isEmpty()) {
+    // フォロー中一覧を取得（フォローした新しい順）
+    // cursor・all の扱いはフォロワー一覧と同じ
+    @GetMapping("/following/{userId}")
+    public ResponseEntity<?> getFollowing(
+            @PathVariable Long userId,
+            @RequestParam(defaultValue = "20") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean all,
+            @org.springframework.lang.Nullable Authentication authentication) {
+        return getFollowList(userId, size, cursor, all, authentication, false);
+    }
+
+    /**
+     * フォロワー・フォロー中一覧のレスポンスを作成
+     *
+     * @param followers true の場合はフォロワー一覧、false の場合はフォロー中一覧
+     */
+    private ResponseEntity<?> getFollowList(Long userId, int size, String cursor, boolean all,
+                                            Authentication authentication, boolean followers) {
+        if (!userRepository.existsById(userId)) {
             return ResponseEntity.badRequest().body(Map.of("error", "User not found"));
         }
 
-        User targetUser = targetUserOpt.get();
-        List<User> followers = followRepository.findFollowersByUser(targetUser);
+        Long currentUserId = authentication != null
+            ? userRepository.findByEmail(authentication.getName()).map(User::getId).orElse(null)
+            : null;
 
-        List<FollowUserDTO> followerDTOs = followers.stream().map(user -> {
-            boolean isFollowing = false;
-            if (currentUserOpt.isPresent()) {
-                isFollowing = followRepository.existsByFollowerAndFollowing(currentUserOpt.get(), user);
-            }
-            return new FollowUserDTO(
-                user.getId(),
-                user.getName(),
-                user.getCustomId(),
-                user.getProfileImageUrl(),
-                user.getDescription(),
-                isFollowing
-            );
-        }).collect(Collectors.toList());
-
-        return ResponseEntity.ok(followerDTOs);
-    }
+        if (all) {
+            Pageable pageable = PageRequest.of(0, maxUnpagedFollows);
+            List<FollowEntry> entries = followers
+                ? followRepository.findFollowerEntries(userId, pageable)
+                : followRepository.findFollowingEntries(userId, pageable);
+            return ResponseEntity.ok(followListAssembler.assemble(entries, currentUserId));
+        }
 
-    // フォロー中一覧を取得
-    @GetMapping("/following/{userId}")
-    public ResponseEntity<?> getFollowing(@PathVariable Long userId, @org.springframework.lang.Nullable Authentication authentication) {
-        final Optional<User> currentUserOpt;
-        if (authentication != null) {
-            String email = authentication.getName();
-            currentUserOpt = userRepository.findByEmail(email);
+        List<FollowEntry> entries;
+        if (cursor != null && !cursor.isEmpty()) {
+            FeedCursor followCursor;
+            try {
+                followCursor = FeedCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Invalid cursor"));
+            }
+            Pageable pageable = PageRequest.of(0, size);
+            entries = followers
+                ? followRepository.findFollowerEntriesBefore(
+                    userId, followCursor.getCreatedAt(), followCursor.getId(), pageable)
+                : followRepository.findFollowingEntriesBefore(
+                    userId, followCursor.getCreatedAt(), followCursor.getId(), pageable);
         } else {
-            currentUserOpt = Optional.empty();
+            Pageable pageable = PageRequest.of(0, size);
+            entries = followers
+                ? followRepository.findFollowerEntries(userId, pageable)
+                : followRepository.findFollowingEntries(userId, pageable);
         }
-        Optional<User> targetUserOpt = userRepository.findById(userId);
 
-        if (targetUserOpt.isEmpty()) {
-            return ResponseEntity.badRequest().body(Map.of("error", "User not found"));
+        // 次のページがあるかどうか（nextCursor は取得したページの最後のフォローを指す）
+        boolean hasMore = entries.size() == size;
+        String nextCursor = null;
+        if (hasMore) {
+            FollowEntry last = entries.get(entries.size() - 1);
+            nextCursor = new FeedCursor(last.getFollowedAt(), last.getFollowId()).encode();
         }
 
-        User targetUser = targetUserOpt.get();
-        List<User> following = followRepository.findFollowingByUser(targetUser);
-
-        List<FollowUserDTO> followingDTOs = following.stream().map(user -> {
-            boolean isFollowingUser = false;
-            if (currentUserOpt.isPresent()) {
-                isFollowingUser = followRepository.existsByFollowerAndFollowing(currentUserOpt.get(), user);
-            }
-            return new FollowUserDTO(
-                user.getId(),
-                user.getName(),
-                user.getCustomId(),
-                user.getProfileImageUrl(),
-                user.getDescription(),
-                isFollowingUser
-            );
-        }).collect(Collectors.toList());
-
-        return ResponseEntity.ok(followingDTOs);
+        Map<String, Object> response = new HashMap<>();
+        response.put("items", followListAssembler.assemble(entries, currentUserId));
+        response.put("hasMore", hasMore);
+        response.put("nextCursor", nextCursor);
+        return ResponseEntity.ok(response);
     }
 
     // フォロー状態を確認
@@ -211,7 +234,7 @@ public class FollowController {
         User currentUser = currentUserOpt.get();
         User targetUser = targetUserOpt.get();
 
-        boolean isFollowing = followRepository.existsByFollowerAndFollowing(currentUser, targetUser);
+        boolean isFollowing = followService.isFollowing(currentUser.getId(), targetUser.getId());
 
         return ResponseEntity.ok(Map.of("isFollowing", isFollowing));
     }
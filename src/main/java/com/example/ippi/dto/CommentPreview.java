@@ -0,0 +1,22 @@
+package com.example.ippi.dto;
+
+/**
+ * フィードに埋め込むコメントのプロジェクション
+ * 列名はネイティブクエリの別名と一致させる
+ */
+public interface CommentPreview {
+
+    Long getActivityId();
+
+    Long getId();
+
+    Long getUserId();
+
+    String getUserName();
+
+    String getUserProfileImageUrl();
+
+    String getText();
+
+    Long getCreatedAt();
+}
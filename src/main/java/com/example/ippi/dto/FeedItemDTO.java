@@ -1,5 +1,7 @@
 package com.example.ippi.dto;
 
+import com.fasterxml.jackson.annotation.JsonRawValue;
+
 import java.util.List;
 
 public class FeedItemDTO {
@@ -33,6 +35,15 @@ public class FeedItemDTO {
         this.createdAt = createdAt;
     }
 
+    // JPQL のコンストラクタ式用（いいね数・コメント数を含む）
+    public FeedItemDTO(Long id, Long userId, String userName, String userCustomId,
+                       String userProfileImageUrl, String activityType, String message,
+                       String relatedData, Long createdAt, Long likeCount, Long commentCount) {
+        this(id, userId, userName, userCustomId, userProfileImageUrl, activityType, message, relatedData, createdAt);
+        this.likeCount = likeCount;
+        this.commentCount = commentCount;
+    }
+
     public Long getId() {
         return id;
     }
@@ -89,6 +100,8 @@ public class FeedItemDTO {
         this.message = message;
     }
 
+    // JSON文字列ではなくオブジェクトとして出力する（以前は文字列だったため、クライアント向けの変更点は README に記載）
+    @JsonRawValue
     public String getRelatedData() {
         return relatedData;
     }
@@ -0,0 +1,22 @@
+package com.example.ippi.dto;
+
+/**
+ * フォロワー・フォロー中一覧の1件のプロジェクション
+ * followId と followedAt はキーセットページングのカーソルに使う
+ */
+public interface FollowEntry {
+
+    Long getFollowId();
+
+    Long getFollowedAt();
+
+    Long getUserId();
+
+    String getName();
+
+    String getCustomId();
+
+    String getProfileImageUrl();
+
+    String getDescription();
+}
@@ -0,0 +1,14 @@
+package com.example.ippi.dto;
+
+import java.util.List;
+
+/**
+ * フォローされた時のアクティビティの relatedData
+ *
+ * @param followerId 表示するフォロワー（最後にフォローしたユーザー）のID
+ * @param followerName 表示するフォロワーの名前
+ * @param followerIds まとめたフォロワーのID（新しい順、上限件数まで）
+ * @param followerCount まとめたフォロワーの人数
+ */
+public record FollowedData(Long followerId, String followerName, List<Long> followerIds, int followerCount) {
+}
@@ -0,0 +1,13 @@
+package com.example.ippi.dto;
+
+/**
+ * ランキング表示のタイムラインエントリのプロジェクション
+ */
+public interface RankedEntry {
+
+    Long getActivityId();
+
+    Long getCreatedAt();
+
+    Double getScore();
+}
@@ -0,0 +1,12 @@
+package com.example.ippi.dto;
+
+/**
+ * タイムラインエントリが指すアクティビティのプロジェクション
+ * 作成日時はアクティビティ取得時のパーティション絞り込みに使う
+ */
+public interface TimelineRef {
+
+    Long getActivityId();
+
+    Long getCreatedAt();
+}
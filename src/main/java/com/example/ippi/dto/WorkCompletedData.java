@@ -0,0 +1,9 @@
+package com.example.ippi.dto;
+
+/**
+ * 作業完了のアクティビティの relatedData
+ *
+ * @param minutes 作業時間（分）
+ */
+public record WorkCompletedData(int minutes) {
+}
@@ -1,9 +1,17 @@
 package com.example.ippi.entity;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.util.List;
 
 @Entity
-@Table(name = "activities")
+@Table(name = "activities", indexes = {
+    @Index(name = "idx_activities_user_created", columnList = "user_id, created_at DESC, id DESC"),
+    @Index(name = "idx_activities_user_type_created", columnList = "user_id, activity_type, created_at DESC"),
+    @Index(name = "idx_activities_created", columnList = "created_at DESC, id DESC")
+})
 public class Activity {
 
     @Id
@@ -20,12 +28,22 @@ public class Activity {
     @Column(name = "message", length = 500)
     private String message;
 
-    @Column(name = "related_data", length = 1000)
-    private String relatedData; // JSON形式で追加データを保存
+    // 追加データ（WorkCompletedData などを RelatedDataMapper で変換したJSON）
+    // jsonb のため、GINインデックス（migration_related_data_jsonb.sql）で内容を検索できる
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "related_data", columnDefinition = "jsonb")
+    private String relatedData;
 
     @Column(name = "created_at", nullable = false, updatable = false)
     private Long createdAt;
 
+    // いいね数・コメント数（UPDATE文で加算するため、エンティティの保存では更新しない）
+    @Column(name = "like_count", nullable = false, updatable = false, columnDefinition = "bigint default 0")
+    private long likeCount;
+
+    @Column(name = "comment_count", nullable = false, updatable = false, columnDefinition = "bigint default 0")
+    private long commentCount;
+
     public Activity() {}
 
     public Activity(User user, String activityType, String message, String relatedData, Long createdAt) {
@@ -40,6 +58,7 @@ public class Activity {
     public static final String TYPE_WORK_COMPLETED = "work_completed";
     public static final String TYPE_FOLLOW = "follow";
     public static final String TYPE_ACHIEVEMENT = "achievement";
+    public static final List<String> ALL_TYPES = List.of(TYPE_WORK_COMPLETED, TYPE_FOLLOW, TYPE_ACHIEVEMENT);
 
     public Long getId() {
         return id;
@@ -88,4 +107,20 @@ public class Activity {
     public void setCreatedAt(Long createdAt) {
         this.createdAt = createdAt;
     }
+
+    public long getLikeCount() {
+        return likeCount;
+    }
+
+    public void setLikeCount(long likeCount) {
+        this.likeCount = likeCount;
+    }
+
+    public long getCommentCount() {
+        return commentCount;
+    }
+
+    public void setCommentCount(long commentCount) {
+        this.commentCount = commentCount;
+    }
 }
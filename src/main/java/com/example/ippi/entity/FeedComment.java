@@ -3,15 +3,18 @@ package com.example.ippi.entity;
 import jakarta.persistence.*;
 
 @Entity
-@Table(name = "feed_comments")
+@Table(name = "feed_comments", indexes = {
+    @Index(name = "idx_feed_comments_activity_created", columnList = "activity_id, created_at")
+})
 public class FeedComment {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    // activities は created_at で分割されており主キーが (id, created_at) のため、外部キーは張らない
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "activity_id", nullable = false)
+    @JoinColumn(name = "activity_id", nullable = false, foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     private Activity activity;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -12,8 +12,9 @@ public class FeedLike {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    // activities は created_at で分割されており主キーが (id, created_at) のため、外部キーは張らない
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "activity_id", nullable = false)
+    @JoinColumn(name = "activity_id", nullable = false, foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     private Activity activity;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -5,6 +5,10 @@ import jakarta.persistence.*;
 @Entity
 @Table(name = "follows", uniqueConstraints = {
     @UniqueConstraint(columnNames = {"follower_id", "following_id"})
+}, indexes = {
+    @Index(name = "idx_follows_following_follower", columnList = "following_id, follower_id"),
+    @Index(name = "idx_follows_following_created", columnList = "following_id, created_at DESC, id DESC"),
+    @Index(name = "idx_follows_follower_created", columnList = "follower_id, created_at DESC, id DESC")
 })
 public class Follow {
 
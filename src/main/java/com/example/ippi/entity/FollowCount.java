@@ -0,0 +1,53 @@
+package com.example.ippi.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * ユーザーごとのフォロワー数・フォロー中の数
+ *
+ * フォロー・フォロー解除と同じトランザクションで加算し、プロフィール表示時に follows を数え直さないようにする。
+ * ずれは FollowService の突き合わせで修正する
+ */
+@Entity
+@Table(name = "follow_counts", indexes = {
+    @Index(name = "idx_follow_counts_followers", columnList = "followers_count")
+})
+public class FollowCount {
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    // UPDATE文で加算するため、エンティティの保存では更新しない
+    @Column(name = "followers_count", nullable = false, updatable = false, columnDefinition = "bigint default 0")
+    private long followersCount;
+
+    @Column(name = "following_count", nullable = false, updatable = false, columnDefinition = "bigint default 0")
+    private long followingCount;
+
+    public FollowCount() {}
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public long getFollowersCount() {
+        return followersCount;
+    }
+
+    public void setFollowersCount(long followersCount) {
+        this.followersCount = followersCount;
+    }
+
+    public long getFollowingCount() {
+        return followingCount;
+    }
+
+    public void setFollowingCount(long followingCount) {
+        this.followingCount = followingCount;
+    }
+}
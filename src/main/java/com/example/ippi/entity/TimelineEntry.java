@@ -0,0 +1,122 @@
+package com.example.ippi.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * TimelineEntry - ホームタイムライン（受信箱）エンティティ
+ *
+ * アクティビティ作成時に投稿者本人とフォロワーごとに1行ずつ書き込み、
+ * フィード取得は owner_id のインデックス範囲読み取りだけで行う（新着順は created_at、ランキングは score）
+ */
+@Entity
+@Table(name = "timeline_entries", uniqueConstraints = {
+    @UniqueConstraint(columnNames = {"owner_id", "activity_id"})
+}, indexes = {
+    @Index(name = "idx_timeline_owner_created", columnList = "owner_id, created_at DESC, activity_id DESC, activity_type"),
+    @Index(name = "idx_timeline_owner_author", columnList = "owner_id, author_id"),
+    @Index(name = "idx_timeline_owner_score", columnList = "owner_id, score DESC, activity_id DESC, activity_type, created_at"),
+    @Index(name = "idx_timeline_activity", columnList = "activity_id")
+})
+public class TimelineEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "owner_id", nullable = false)
+    private Long ownerId; // タイムラインの持ち主
+
+    @Column(name = "activity_id", nullable = false)
+    private Long activityId;
+
+    @Column(name = "author_id", nullable = false)
+    private Long authorId; // アクティビティの投稿者
+
+    @Column(name = "activity_type", nullable = false, length = 50)
+    private String activityType; // タイプでの絞り込みをタイムライン上で行うため複製
+
+    @Column(name = "created_at", nullable = false)
+    private Long createdAt; // アクティビティの作成日時
+
+    // ランキング表示用のスコア（FeedScore + affinity）。いいね・コメントの反映時に再計算する
+    @Column(name = "score", nullable = false, columnDefinition = "double precision default 0")
+    private double score;
+
+    // 持ち主と投稿者の近さによる加点（相互フォローなど）。書き込み時に決まる
+    @Column(name = "affinity", nullable = false, columnDefinition = "double precision default 0")
+    private double affinity;
+
+    public TimelineEntry() {}
+
+    public TimelineEntry(Long ownerId, Long activityId, Long authorId, String activityType, Long createdAt) {
+        this.ownerId = ownerId;
+        this.activityId = activityId;
+        this.authorId = authorId;
+        this.activityType = activityType;
+        this.createdAt = createdAt;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getOwnerId() {
+        return ownerId;
+    }
+
+    public void setOwnerId(Long ownerId) {
+        this.ownerId = ownerId;
+    }
+
+    public Long getActivityId() {
+        return activityId;
+    }
+
+    public void setActivityId(Long activityId) {
+        this.activityId = activityId;
+    }
+
+    public Long getAuthorId() {
+        return authorId;
+    }
+
+    public void setAuthorId(Long authorId) {
+        this.authorId = authorId;
+    }
+
+    public String getActivityType() {
+        return activityType;
+    }
+
+    public void setActivityType(String activityType) {
+        this.activityType = activityType;
+    }
+
+    public Long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public void setScore(double score) {
+        this.score = score;
+    }
+
+    public double getAffinity() {
+        return affinity;
+    }
+
+    public void setAffinity(double affinity) {
+        this.affinity = affinity;
+    }
+}
@@ -40,6 +40,11 @@ public class User {
     @Column(name = "custom_id", unique = true, length = 50)
     private String customId;
 
+    // ホームタイムラインを作成した日時（タイムライン導入前のユーザーの初回作成を一度だけ行うため）
+    // UserRepository.markTimelineBuilt でのみ更新する
+    @Column(name = "timeline_built_at", insertable = false, updatable = false)
+    private Long timelineBuiltAt;
+
     public User() {}
 
     public User(String email, String password, String name, Long createdAt, Long updatedAt) {
@@ -147,4 +152,8 @@ public class User {
     public void setCustomId(String customId) {
         this.customId = customId;
     }
+
+    public Long getTimelineBuiltAt() {
+        return timelineBuiltAt;
+    }
 }
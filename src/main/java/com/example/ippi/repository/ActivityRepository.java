@@ -1,23 +1,116 @@
 package com.example.ippi.repository;
 
+import com.example.ippi.dto.FeedItemDTO;
+import com.example.ippi.dto.TimelineRef;
 import com.example.ippi.entity.Activity;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ActivityRepository extends JpaRepository<Activity, Long> {
 
-    // 特定ユーザーのアクティビティを取得
-    List<Activity> findByUserIdOrderByCreatedAtDesc(Long userId, Pageable pageable);
+    // フィードアイテムとして必要な列だけを取得する（エンティティを管理対象にしない）
+    String FEED_ITEM_SELECT = "SELECT new com.example.ippi.dto.FeedItemDTO(" +
+        "a.id, u.id, u.name, u.customId, u.profileImageUrl, a.activityType, a.message, a.relatedData, " +
+        "a.createdAt, a.likeCount, a.commentCount) FROM Activity a JOIN a.user u ";
 
-    // フォローしているユーザーのアクティビティを取得（フィード用）
-    @Query("SELECT a FROM Activity a WHERE a.user.id IN :userIds ORDER BY a.createdAt DESC")
-    List<Activity> findByUserIdInOrderByCreatedAtDesc(@Param("userIds") List<Long> userIds, Pageable pageable);
+    // 特定ユーザーのアクティビティを取得（types に含まれるタイプのみ）
+    @Transactional(readOnly = true)
+    @Query(FEED_ITEM_SELECT + "WHERE u.id = :userId AND a.activityType IN :types " +
+           "ORDER BY a.createdAt DESC, a.id DESC")
+    List<FeedItemDTO> findFeedItemsByUserId(@Param("userId") Long userId,
+                                            @Param("types") Collection<String> types,
+                                            Pageable pageable);
+
+    // 特定ユーザーのアクティビティをカーソル位置より古い順に取得（キーセットページング）
+    @Transactional(readOnly = true)
+    @Query(FEED_ITEM_SELECT + "WHERE u.id = :userId AND a.activityType IN :types " +
+           "AND (a.createdAt < :createdAt OR (a.createdAt = :createdAt AND a.id < :id)) " +
+           "ORDER BY a.createdAt DESC, a.id DESC")
+    List<FeedItemDTO> findFeedItemsByUserIdBefore(@Param("userId") Long userId,
+                                                  @Param("types") Collection<String> types,
+                                                  @Param("createdAt") Long createdAt,
+                                                  @Param("id") Long id,
+                                                  Pageable pageable);
+
+    // 全ユーザーの最近のアクティビティを取得（ディスカバー用、since 以降の月のパーティションだけを読む）
+    @Transactional(readOnly = true)
+    @Query(FEED_ITEM_SELECT + "WHERE a.createdAt >= :since AND a.activityType IN :types " +
+           "ORDER BY a.createdAt DESC, a.id DESC")
+    List<FeedItemDTO> findRecentFeedItems(@Param("since") Long since,
+                                          @Param("types") Collection<String> types,
+                                          Pageable pageable);
+
+    // 複数ユーザーのアクティビティを取得（プル配信のフィード用、types に含まれるタイプのみ）
+    @Transactional(readOnly = true)
+    @Query(FEED_ITEM_SELECT + "WHERE u.id IN :userIds AND a.activityType IN :types " +
+           "ORDER BY a.createdAt DESC, a.id DESC")
+    List<FeedItemDTO> findFeedItemsByUserIdIn(@Param("userIds") List<Long> userIds,
+                                              @Param("types") Collection<String> types,
+                                              Pageable pageable);
+
+    // 複数ユーザーのアクティビティのIDと作成日時（プル配信のタイムラインをキャッシュに載せる用）
+    @Transactional(readOnly = true)
+    @Query("SELECT a.id AS activityId, a.createdAt AS createdAt FROM Activity a " +
+           "WHERE a.user.id IN :userIds AND a.activityType IN :types " +
+           "ORDER BY a.createdAt DESC, a.id DESC")
+    List<TimelineRef> findRefsByUserIdIn(@Param("userIds") List<Long> userIds,
+                                         @Param("types") Collection<String> types,
+                                         Pageable pageable);
+
+    // 複数ユーザーのアクティビティをカーソル位置より古い順に取得（キーセットページング）
+    @Transactional(readOnly = true)
+    @Query(FEED_ITEM_SELECT + "WHERE u.id IN :userIds AND a.activityType IN :types " +
+           "AND (a.createdAt < :createdAt OR (a.createdAt = :createdAt AND a.id < :id)) " +
+           "ORDER BY a.createdAt DESC, a.id DESC")
+    List<FeedItemDTO> findFeedItemsByUserIdInBefore(@Param("userIds") List<Long> userIds,
+                                                    @Param("types") Collection<String> types,
+                                                    @Param("createdAt") Long createdAt,
+                                                    @Param("id") Long id,
+                                                    Pageable pageable);
+
+    // 複数ユーザーのアクティビティのうちカーソル位置より新しいものを新しい順に取得（新着取得用）
+    @Transactional(readOnly = true)
+    @Query(FEED_ITEM_SELECT + "WHERE u.id IN :userIds AND a.activityType IN :types " +
+           "AND (a.createdAt > :createdAt OR (a.createdAt = :createdAt AND a.id > :id)) " +
+           "ORDER BY a.createdAt DESC, a.id DESC")
+    List<FeedItemDTO> findFeedItemsByUserIdInAfter(@Param("userIds") List<Long> userIds,
+                                                   @Param("types") Collection<String> types,
+                                                   @Param("createdAt") Long createdAt,
+                                                   @Param("id") Long id,
+                                                   Pageable pageable);
+
+    // 複数ユーザーのカーソル位置より新しいアクティビティ数（limit 件で打ち切り）
+    @Query(value = "SELECT COUNT(*) FROM (SELECT 1 FROM activities a " +
+                   "WHERE a.user_id IN (:userIds) AND a.activity_type IN (:types) " +
+                   "AND (a.created_at > :createdAt OR (a.created_at = :createdAt AND a.id > :id)) " +
+                   "LIMIT :limit) newer",
+           nativeQuery = true)
+    long countByUserIdInAfter(@Param("userIds") List<Long> userIds,
+                              @Param("types") Collection<String> types,
+                              @Param("createdAt") Long createdAt,
+                              @Param("id") Long id,
+                              @Param("limit") int limit);
+
+    // ID指定でフィードアイテムを取得（タイムライン用、順序は保証しない）
+    // 作成日時の範囲を条件に含め、activities の該当する月のパーティションだけを読む
+    @Transactional(readOnly = true)
+    @Query(FEED_ITEM_SELECT + "WHERE a.id IN :ids AND a.createdAt BETWEEN :oldestCreatedAt AND :newestCreatedAt")
+    List<FeedItemDTO> findFeedItemsByIdInRange(@Param("ids") Collection<Long> ids,
+                                               @Param("oldestCreatedAt") Long oldestCreatedAt,
+                                               @Param("newestCreatedAt") Long newestCreatedAt);
+
+    // ID と作成日時を指定して取得（作成日時で該当する月のパーティションだけを読む）
+    Optional<Activity> findByIdAndCreatedAt(Long id, Long createdAt);
 
     // 特定ユーザーの最新アクティビティを取得
     @Query("SELECT a FROM Activity a WHERE a.user.id = :userId ORDER BY a.createdAt DESC")
@@ -25,4 +118,47 @@ public interface ActivityRepository extends JpaRepository<Activity, Long> {
 
     // 特定タイプのアクティビティを取得
     List<Activity> findByUserIdAndActivityTypeOrderByCreatedAtDesc(Long userId, String activityType, Pageable pageable);
+
+    // メッセージと追加データを更新（集約したフォローのアクティビティ用）
+    @Modifying
+    @Transactional
+    @Query("UPDATE Activity a SET a.message = :message, a.relatedData = :relatedData WHERE a.id = :id")
+    int updateMessage(@Param("id") Long id,
+                      @Param("message") String message,
+                      @Param("relatedData") String relatedData);
+
+    // フォロワーを含むフォローされた時のアクティビティ（related_data の GIN インデックスで検索）
+    @Query(value = "SELECT * FROM activities a WHERE a.user_id = :userId AND a.activity_type = 'follow' " +
+                   "AND a.related_data @> jsonb_build_object('followerIds', jsonb_build_array(CAST(:followerId AS bigint)))",
+           nativeQuery = true)
+    List<Activity> findFollowedActivitiesReferencing(@Param("userId") Long userId, @Param("followerId") Long followerId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Activity a WHERE a.id = :id")
+    int deleteByActivityId(@Param("id") Long id);
+
+    // いいね数・コメント数をまとめて加算（EngagementCounterService から定期的に実行）
+    @Modifying
+    @Transactional
+    @Query("UPDATE Activity a SET a.likeCount = a.likeCount + :likeDelta, " +
+           "a.commentCount = a.commentCount + :commentDelta WHERE a.id = :id")
+    int incrementCounts(@Param("id") Long id,
+                        @Param("likeDelta") long likeDelta,
+                        @Param("commentDelta") long commentDelta);
+
+    @Query("SELECT MAX(a.id) FROM Activity a")
+    Long findMaxId();
+
+    // ID範囲 (afterId, lastId] のいいね数・コメント数を実際の件数と突き合わせて修正
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE activities a SET like_count = x.likes, comment_count = x.comments " +
+                   "FROM (SELECT a2.id, " +
+                   "(SELECT COUNT(*) FROM feed_likes fl WHERE fl.activity_id = a2.id) AS likes, " +
+                   "(SELECT COUNT(*) FROM feed_comments fc WHERE fc.activity_id = a2.id) AS comments " +
+                   "FROM activities a2 WHERE a2.id > :afterId AND a2.id <= :lastId) x " +
+                   "WHERE a.id = x.id AND (a.like_count <> x.likes OR a.comment_count <> x.comments)",
+           nativeQuery = true)
+    int reconcileCounts(@Param("afterId") Long afterId, @Param("lastId") Long lastId);
 }
@@ -1,10 +1,18 @@
 package com.example.ippi.repository;
 
+import com.example.ippi.dto.CommentDTO;
+import com.example.ippi.dto.CommentPreview;
 import com.example.ippi.entity.Activity;
 import com.example.ippi.entity.FeedComment;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -13,4 +21,41 @@ public interface FeedCommentRepository extends JpaRepository<FeedComment, Long>
     List<FeedComment> findByActivityOrderByCreatedAtAsc(Activity activity);
     
     long countByActivity(Activity activity);
+
+    // コメントとして必要な列だけを取得する（エンティティを管理対象にしない）
+    String COMMENT_SELECT = "SELECT new com.example.ippi.dto.CommentDTO(" +
+        "c.id, u.id, u.name, u.profileImageUrl, c.text, c.createdAt) FROM FeedComment c JOIN c.user u ";
+
+    // 複数アクティビティについて、アクティビティごとに最新 limit 件のコメントを取得（フィードのプレビュー用）
+    @Transactional(readOnly = true)
+    @Query(value = "SELECT ranked.activity_id AS \"activityId\", ranked.id AS \"id\", u.id AS \"userId\", " +
+                   "u.name AS \"userName\", u.profile_image_url AS \"userProfileImageUrl\", " +
+                   "ranked.text AS \"text\", ranked.created_at AS \"createdAt\" FROM (" +
+                   "SELECT c.id, c.activity_id, c.user_id, c.text, c.created_at, " +
+                   "ROW_NUMBER() OVER (PARTITION BY c.activity_id ORDER BY c.created_at DESC, c.id DESC) AS rn " +
+                   "FROM feed_comments c WHERE c.activity_id IN (:activityIds)" +
+                   ") ranked JOIN users u ON u.id = ranked.user_id WHERE ranked.rn <= :limit",
+           nativeQuery = true)
+    List<CommentPreview> findLatestByActivityIds(@Param("activityIds") Collection<Long> activityIds, @Param("limit") int limit);
+
+    // アクティビティのコメントを新しい順に取得
+    @Transactional(readOnly = true)
+    @Query(COMMENT_SELECT + "WHERE c.activity.id = :activityId ORDER BY c.createdAt DESC, c.id DESC")
+    List<CommentDTO> findPageByActivityId(@Param("activityId") Long activityId, Pageable pageable);
+
+    // アクティビティのコメントをカーソル位置より古い順に取得（キーセットページング）
+    @Transactional(readOnly = true)
+    @Query(COMMENT_SELECT + "WHERE c.activity.id = :activityId " +
+           "AND (c.createdAt < :createdAt OR (c.createdAt = :createdAt AND c.id < :id)) " +
+           "ORDER BY c.createdAt DESC, c.id DESC")
+    List<CommentDTO> findPageByActivityIdBefore(@Param("activityId") Long activityId,
+                                                @Param("createdAt") Long createdAt,
+                                                @Param("id") Long id,
+                                                Pageable pageable);
+
+    // アクティビティのコメントをすべて削除（アクティビティの削除時）
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FeedComment c WHERE c.activity.id = :activityId")
+    int deleteByActivityId(@Param("activityId") Long activityId);
 }
@@ -4,10 +4,13 @@ import com.example.ippi.entity.Activity;
 import com.example.ippi.entity.FeedLike;
 import com.example.ippi.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -20,6 +23,35 @@ public interface FeedLikeRepository extends JpaRepository<FeedLike, Long> {
     
     long countByActivity(Activity activity);
     
-    @Query("SELECT fl.activity.id FROM FeedLike fl WHERE fl.user = :user")
-    List<Long> findLikedActivityIdsByUser(@Param("user") User user);
+    // 指定アクティビティのうち、ユーザーがいいねしたもののIDを取得（フィードのページ単位）
+    @Query("SELECT fl.activity.id FROM FeedLike fl WHERE fl.user.id = :userId AND fl.activity.id IN :activityIds")
+    List<Long> findLikedActivityIdsAmong(@Param("userId") Long userId, @Param("activityIds") Collection<Long> activityIds);
+
+    // 保存済みのいいね状態（LikeWriteBuffer がいいね数の差分を求めるために使う）
+    @Query("SELECT COUNT(fl) > 0 FROM FeedLike fl WHERE fl.activity.id = :activityId AND fl.user.id = :userId")
+    boolean isLikedBy(@Param("activityId") Long activityId, @Param("userId") Long userId);
+
+    // 複数ユーザーのいいねをまとめて追加（いいね済み・存在しないユーザーやアクティビティは無視）
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO feed_likes (activity_id, user_id, created_at) " +
+                   "SELECT :activityId, u.id, :createdAt FROM users u " +
+                   "WHERE u.id IN (:userIds) AND EXISTS (SELECT 1 FROM activities a WHERE a.id = :activityId) " +
+                   "ON CONFLICT (activity_id, user_id) DO NOTHING",
+           nativeQuery = true)
+    int insertLikes(@Param("activityId") Long activityId,
+                    @Param("userIds") Collection<Long> userIds,
+                    @Param("createdAt") Long createdAt);
+
+    // 複数ユーザーのいいねをまとめて削除
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FeedLike fl WHERE fl.activity.id = :activityId AND fl.user.id IN :userIds")
+    int deleteLikes(@Param("activityId") Long activityId, @Param("userIds") Collection<Long> userIds);
+
+    // アクティビティのいいねをすべて削除（アクティビティの削除時）
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FeedLike fl WHERE fl.activity.id = :activityId")
+    int deleteByActivityId(@Param("activityId") Long activityId);
 }
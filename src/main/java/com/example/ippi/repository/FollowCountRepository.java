@@ -0,0 +1,65 @@
+package com.example.ippi.repository;
+
+import com.example.ippi.entity.FollowCount;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface FollowCountRepository extends JpaRepository<FollowCount, Long> {
+
+    // フォロワー数・フォロー中の数を加算（行がない場合は作成）
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO follow_counts (user_id, followers_count, following_count) " +
+                   "VALUES (:userId, GREATEST(0, :followersDelta), GREATEST(0, :followingDelta)) " +
+                   "ON CONFLICT (user_id) DO UPDATE SET " +
+                   "followers_count = GREATEST(0, follow_counts.followers_count + :followersDelta), " +
+                   "following_count = GREATEST(0, follow_counts.following_count + :followingDelta)",
+           nativeQuery = true)
+    int addCounts(@Param("userId") Long userId,
+                  @Param("followersDelta") long followersDelta,
+                  @Param("followingDelta") long followingDelta);
+
+    // フォロワー数が閾値以上のユーザーIDを取得（プル配信対象の判定用）
+    @Query("SELECT c.userId FROM FollowCount c WHERE c.followersCount >= :threshold")
+    List<Long> findUserIdsWithFollowersAtLeast(@Param("threshold") long threshold);
+
+    // ユーザーID範囲 (afterId, lastId] のうち行のないユーザーの行を作成（同時に加算された分は reconcileCounts で修正）
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO follow_counts (user_id, followers_count, following_count) " +
+                   "SELECT u.id, " +
+                   "(SELECT COUNT(*) FROM follows f WHERE f.following_id = u.id), " +
+                   "(SELECT COUNT(*) FROM follows f WHERE f.follower_id = u.id) " +
+                   "FROM users u WHERE u.id > :afterId AND u.id <= :lastId " +
+                   "ON CONFLICT (user_id) DO NOTHING",
+           nativeQuery = true)
+    int insertMissingCounts(@Param("afterId") Long afterId, @Param("lastId") Long lastId);
+
+    // ユーザーID範囲 (afterId, lastId] の行をロック（フォロー・フォロー解除の addCounts と同じくユーザーIDの小さい順）
+    @Transactional
+    @Query(value = "SELECT c.user_id FROM follow_counts c WHERE c.user_id > :afterId AND c.user_id <= :lastId " +
+                   "ORDER BY c.user_id FOR UPDATE",
+           nativeQuery = true)
+    List<Long> lockCounts(@Param("afterId") Long afterId, @Param("lastId") Long lastId);
+
+    // ユーザーID範囲 (afterId, lastId] の件数を follows と突き合わせて修正（ずれている行のみ書き込む）
+    // lockCounts と同じトランザクションで、ロックを取得した後に実行する（件数はロック取得後の follows から数える）
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE follow_counts c SET followers_count = x.followers, following_count = x.following " +
+                   "FROM (SELECT c2.user_id, " +
+                   "(SELECT COUNT(*) FROM follows f WHERE f.following_id = c2.user_id) AS followers, " +
+                   "(SELECT COUNT(*) FROM follows f WHERE f.follower_id = c2.user_id) AS following " +
+                   "FROM follow_counts c2 WHERE c2.user_id > :afterId AND c2.user_id <= :lastId) x " +
+                   "WHERE c.user_id = x.user_id " +
+                   "AND (c.followers_count <> x.followers OR c.following_count <> x.following)",
+           nativeQuery = true)
+    int reconcileCounts(@Param("afterId") Long afterId, @Param("lastId") Long lastId);
+}
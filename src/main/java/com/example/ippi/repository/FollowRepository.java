@@ -1,39 +1,107 @@
 package com.example.ippi.repository;
 
+import com.example.ippi.dto.FollowEntry;
 import com.example.ippi.entity.Follow;
 import com.example.ippi.entity.User;
+import com.example.ippi.util.LongHashSet;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface FollowRepository extends JpaRepository<Follow, Long> {
 
+    // 一覧に表示する列だけを取得する（u はフォロワーまたはフォロー中のユーザー）
+    String FOLLOW_ENTRY_SELECT = "SELECT f.id AS followId, f.createdAt AS followedAt, u.id AS userId, " +
+        "u.name AS name, u.customId AS customId, u.profileImageUrl AS profileImageUrl, u.description AS description ";
+
     // フォロー関係が存在するか確認
     boolean existsByFollowerAndFollowing(User follower, User following);
 
+    boolean existsByFollowerIdAndFollowingId(Long followerId, Long followingId);
+
     // フォロー関係を取得
     Optional<Follow> findByFollowerAndFollowing(User follower, User following);
 
-    // フォロワー一覧を取得（自分をフォローしているユーザー）
-    @Query("SELECT f.follower FROM Follow f WHERE f.following = :user ORDER BY f.createdAt DESC")
-    List<User> findFollowersByUser(@Param("user") User user);
+    // フォロー関係を作成（既にフォローしている場合は何もしない）
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO follows (follower_id, following_id, created_at) " +
+                   "VALUES (:followerId, :followingId, :createdAt) " +
+                   "ON CONFLICT (follower_id, following_id) DO NOTHING",
+           nativeQuery = true)
+    int insertFollow(@Param("followerId") Long followerId,
+                     @Param("followingId") Long followingId,
+                     @Param("createdAt") Long createdAt);
+
+    // フォロー関係を削除
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Follow f WHERE f.follower.id = :followerId AND f.following.id = :followingId")
+    int deleteFollow(@Param("followerId") Long followerId, @Param("followingId") Long followingId);
+
+    // フォロワー一覧を取得（自分をフォローしているユーザー、フォローされた新しい順）
+    @Query(FOLLOW_ENTRY_SELECT + "FROM Follow f JOIN f.follower u WHERE f.following.id = :userId " +
+           "ORDER BY f.createdAt DESC, f.id DESC")
+    List<FollowEntry> findFollowerEntries(@Param("userId") Long userId, Pageable pageable);
 
-    // フォロー中一覧を取得（自分がフォローしているユーザー）
-    @Query("SELECT f.following FROM Follow f WHERE f.follower = :user ORDER BY f.createdAt DESC")
-    List<User> findFollowingByUser(@Param("user") User user);
+    // フォロワー一覧をカーソル位置より古い順に取得（キーセットページング）
+    @Query(FOLLOW_ENTRY_SELECT + "FROM Follow f JOIN f.follower u WHERE f.following.id = :userId " +
+           "AND (f.createdAt < :createdAt OR (f.createdAt = :createdAt AND f.id < :id)) " +
+           "ORDER BY f.createdAt DESC, f.id DESC")
+    List<FollowEntry> findFollowerEntriesBefore(@Param("userId") Long userId,
+                                                @Param("createdAt") Long createdAt,
+                                                @Param("id") Long id,
+                                                Pageable pageable);
 
-    // フォロワー数を取得
-    long countByFollowing(User following);
+    // フォロー中一覧を取得（自分がフォローしているユーザー、フォローした新しい順）
+    @Query(FOLLOW_ENTRY_SELECT + "FROM Follow f JOIN f.following u WHERE f.follower.id = :userId " +
+           "ORDER BY f.createdAt DESC, f.id DESC")
+    List<FollowEntry> findFollowingEntries(@Param("userId") Long userId, Pageable pageable);
 
-    // フォロー中の数を取得
-    long countByFollower(User follower);
+    // フォロー中一覧をカーソル位置より古い順に取得（キーセットページング）
+    @Query(FOLLOW_ENTRY_SELECT + "FROM Follow f JOIN f.following u WHERE f.follower.id = :userId " +
+           "AND (f.createdAt < :createdAt OR (f.createdAt = :createdAt AND f.id < :id)) " +
+           "ORDER BY f.createdAt DESC, f.id DESC")
+    List<FollowEntry> findFollowingEntriesBefore(@Param("userId") Long userId,
+                                                 @Param("createdAt") Long createdAt,
+                                                 @Param("id") Long id,
+                                                 Pageable pageable);
 
     // フォロー中のユーザーIDリストを取得（フィード用）
     @Query("SELECT f.following.id FROM Follow f WHERE f.follower = :user")
     List<Long> findFollowingIdsByUser(@Param("user") User user);
+
+    // フォロワーIDを昇順に取得（タイムライン書き込みのバッチ処理用）
+    @Query("SELECT f.follower.id FROM Follow f WHERE f.following.id = :userId AND f.follower.id > :afterId ORDER BY f.follower.id")
+    List<Long> findFollowerIdsAfter(@Param("userId") Long userId, @Param("afterId") Long afterId, Pageable pageable);
+
+    // 指定ユーザーのうちフォローしているユーザーIDを取得
+    @Query("SELECT f.following.id FROM Follow f WHERE f.follower.id = :userId AND f.following.id IN :candidateIds")
+    List<Long> findFollowingIdsAmong(@Param("userId") Long userId, @Param("candidateIds") Collection<Long> candidateIds);
+
+    // 表示するユーザー一覧のうち viewerId がフォローしているユーザーID（IN句のパラメータ数を抑えるため分割して取得）
+    default LongHashSet findFollowingIdSetAmong(Long viewerId, Collection<Long> candidateIds) {
+        LongHashSet result = new LongHashSet(candidateIds.size());
+        List<Long> ids = new ArrayList<>(candidateIds);
+        for (int from = 0; from < ids.size(); from += 1000) {
+            for (Long id : findFollowingIdsAmong(viewerId, ids.subList(from, Math.min(from + 1000, ids.size())))) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    // 指定ユーザーのうち userId をフォローしているユーザーIDを取得
+    @Query("SELECT f.follower.id FROM Follow f WHERE f.following.id = :userId AND f.follower.id IN :candidateIds")
+    List<Long> findFollowerIdsAmong(@Param("userId") Long userId, @Param("candidateIds") Collection<Long> candidateIds);
 }
@@ -0,0 +1,201 @@
+package com.example.ippi.repository;
+
+import com.example.ippi.dto.RankedEntry;
+import com.example.ippi.dto.TimelineRef;
+import com.example.ippi.entity.TimelineEntry;
+import com.example.ippi.util.FeedScore;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface TimelineEntryRepository extends JpaRepository<TimelineEntry, Long> {
+
+    // タイムラインのアクティビティIDと作成日時を新しい順に取得（types に含まれるタイプのみ）
+    @Query("SELECT t.activityId AS activityId, t.createdAt AS createdAt FROM TimelineEntry t " +
+           "WHERE t.ownerId = :ownerId AND t.activityType IN :types " +
+           "ORDER BY t.createdAt DESC, t.activityId DESC")
+    List<TimelineRef> findRefsByOwner(@Param("ownerId") Long ownerId,
+                                      @Param("types") Collection<String> types,
+                                      Pageable pageable);
+
+    // タイムラインのアクティビティIDと作成日時をカーソル位置より古い順に取得（キーセットページング）
+    @Query("SELECT t.activityId AS activityId, t.createdAt AS createdAt FROM TimelineEntry t " +
+           "WHERE t.ownerId = :ownerId AND t.activityType IN :types " +
+           "AND (t.createdAt < :createdAt OR (t.createdAt = :createdAt AND t.activityId < :activityId)) " +
+           "ORDER BY t.createdAt DESC, t.activityId DESC")
+    List<TimelineRef> findRefsByOwnerBefore(@Param("ownerId") Long ownerId,
+                                            @Param("types") Collection<String> types,
+                                            @Param("createdAt") Long createdAt,
+                                            @Param("activityId") Long activityId,
+                                            Pageable pageable);
+
+    // タイムラインのアクティビティIDをスコアの高い順に取得（ランキング表示）
+    @Query("SELECT t.activityId AS activityId, t.createdAt AS createdAt, t.score AS score FROM TimelineEntry t " +
+           "WHERE t.ownerId = :ownerId AND t.activityType IN :types " +
+           "ORDER BY t.score DESC, t.activityId DESC")
+    List<RankedEntry> findRankedByOwner(@Param("ownerId") Long ownerId,
+                                        @Param("types") Collection<String> types,
+                                        Pageable pageable);
+
+    // タイムラインのアクティビティIDをカーソル位置よりスコアの低い順に取得（ランキング表示のキーセットページング）
+    @Query("SELECT t.activityId AS activityId, t.createdAt AS createdAt, t.score AS score FROM TimelineEntry t " +
+           "WHERE t.ownerId = :ownerId AND t.activityType IN :types " +
+           "AND (t.score < :score OR (t.score = :score AND t.activityId < :activityId)) " +
+           "ORDER BY t.score DESC, t.activityId DESC")
+    List<RankedEntry> findRankedByOwnerBefore(@Param("ownerId") Long ownerId,
+                                              @Param("types") Collection<String> types,
+                                              @Param("score") double score,
+                                              @Param("activityId") Long activityId,
+                                              Pageable pageable);
+
+    // タイムラインのアクティビティIDと作成日時のうちカーソル位置より新しいものを新しい順に取得（新着取得用）
+    @Query("SELECT t.activityId AS activityId, t.createdAt AS createdAt FROM TimelineEntry t " +
+           "WHERE t.ownerId = :ownerId AND t.activityType IN :types " +
+           "AND (t.createdAt > :createdAt OR (t.createdAt = :createdAt AND t.activityId > :activityId)) " +
+           "ORDER BY t.createdAt DESC, t.activityId DESC")
+    List<TimelineRef> findRefsByOwnerAfter(@Param("ownerId") Long ownerId,
+                                           @Param("types") Collection<String> types,
+                                           @Param("createdAt") Long createdAt,
+                                           @Param("activityId") Long activityId,
+                                           Pageable pageable);
+
+    // カーソル位置より新しいエントリ数（limit 件で打ち切り）
+    // idx_timeline_owner_created がすべての列を含むため、インデックスのみで数えられる
+    @Query(value = "SELECT COUNT(*) FROM (SELECT 1 FROM timeline_entries t " +
+                   "WHERE t.owner_id = :ownerId AND t.activity_type IN (:types) " +
+                   "AND (t.created_at > :createdAt OR (t.created_at = :createdAt AND t.activity_id > :activityId)) " +
+                   "LIMIT :limit) newer",
+           nativeQuery = true)
+    long countByOwnerAfter(@Param("ownerId") Long ownerId,
+                           @Param("types") Collection<String> types,
+                           @Param("createdAt") Long createdAt,
+                           @Param("activityId") Long activityId,
+                           @Param("limit") int limit);
+
+    // 1件書き込み（既に存在する場合は何もしない）
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO timeline_entries (owner_id, activity_id, author_id, activity_type, created_at, score, affinity) " +
+                   "VALUES (:ownerId, :activityId, :authorId, :activityType, :createdAt, :score, 0) ON CONFLICT DO NOTHING",
+           nativeQuery = true)
+    int insertEntry(@Param("ownerId") Long ownerId,
+                    @Param("activityId") Long activityId,
+                    @Param("authorId") Long authorId,
+                    @Param("activityType") String activityType,
+                    @Param("createdAt") Long createdAt,
+                    @Param("score") double score);
+
+    // フォロワーID範囲 (afterFollowerId, lastFollowerId] のタイムラインにまとめて書き込み
+    // 投稿者からもフォローされている（相互フォローの）フォロワーには mutualBonus を加点する
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO timeline_entries (owner_id, activity_id, author_id, activity_type, created_at, score, affinity) " +
+                   "SELECT f.follower_id, :activityId, :authorId, :activityType, :createdAt, :score + m.affinity, m.affinity " +
+                   "FROM follows f CROSS JOIN LATERAL (SELECT CASE WHEN EXISTS (SELECT 1 FROM follows r " +
+                   "WHERE r.follower_id = :authorId AND r.following_id = f.follower_id) " +
+                   "THEN CAST(:mutualBonus AS double precision) ELSE 0 END AS affinity) m " +
+                   "WHERE f.following_id = :authorId AND f.follower_id > :afterFollowerId AND f.follower_id <= :lastFollowerId " +
+                   "ON CONFLICT DO NOTHING",
+           nativeQuery = true)
+    int insertForFollowerRange(@Param("activityId") Long activityId,
+                               @Param("authorId") Long authorId,
+                               @Param("activityType") String activityType,
+                               @Param("createdAt") Long createdAt,
+                               @Param("score") double score,
+                               @Param("mutualBonus") double mutualBonus,
+                               @Param("afterFollowerId") Long afterFollowerId,
+                               @Param("lastFollowerId") Long lastFollowerId);
+
+    // フォロー開始時に相手の最近のアクティビティを取り込む
+    // フィード取得（読み取り専用トランザクション）の途中で呼ばれるため、別トランザクションで書き込む
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query(value = "INSERT INTO timeline_entries (owner_id, activity_id, author_id, activity_type, created_at, score, affinity) " +
+                   "SELECT :ownerId, a.id, a.user_id, a.activity_type, a.created_at, " + FeedScore.SQL + " + m.affinity, m.affinity " +
+                   "FROM activities a CROSS JOIN (SELECT CASE WHEN EXISTS (SELECT 1 FROM follows r " +
+                   "WHERE r.follower_id = :authorId AND r.following_id = :ownerId) " +
+                   "THEN CAST(:mutualBonus AS double precision) ELSE 0 END AS affinity) m " +
+                   "WHERE a.user_id = :authorId ORDER BY a.created_at DESC, a.id DESC LIMIT :limit " +
+                   "ON CONFLICT DO NOTHING",
+           nativeQuery = true)
+    int backfillFromAuthor(@Param("ownerId") Long ownerId,
+                           @Param("authorId") Long authorId,
+                           @Param("limit") int limit,
+                           @Param("mutualBonus") double mutualBonus);
+
+    // フォロワーID範囲 (afterFollowerId, lastFollowerId] のタイムラインに投稿者の最近のアクティビティを取り込む
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO timeline_entries (owner_id, activity_id, author_id, activity_type, created_at, score, affinity) " +
+                   "SELECT f.follower_id, a.id, a.user_id, a.activity_type, a.created_at, " + FeedScore.SQL + " + m.affinity, m.affinity " +
+                   "FROM follows f " +
+                   "CROSS JOIN (SELECT id, user_id, activity_type, created_at, like_count, comment_count FROM activities " +
+                   "WHERE user_id = :authorId ORDER BY created_at DESC, id DESC LIMIT :limit) a " +
+                   "CROSS JOIN LATERAL (SELECT CASE WHEN EXISTS (SELECT 1 FROM follows r " +
+                   "WHERE r.follower_id = :authorId AND r.following_id = f.follower_id) " +
+                   "THEN CAST(:mutualBonus AS double precision) ELSE 0 END AS affinity) m " +
+                   "WHERE f.following_id = :authorId AND f.follower_id > :afterFollowerId AND f.follower_id <= :lastFollowerId " +
+                   "ON CONFLICT DO NOTHING",
+           nativeQuery = true)
+    int backfillFollowerRange(@Param("authorId") Long authorId,
+                              @Param("limit") int limit,
+                              @Param("mutualBonus") double mutualBonus,
+                              @Param("afterFollowerId") Long afterFollowerId,
+                              @Param("lastFollowerId") Long lastFollowerId);
+
+    // 自分とフォロー中ユーザーの最近のアクティビティからタイムラインを作成
+    // フィード取得（読み取り専用トランザクション）の途中で呼ばれるため、別トランザクションで書き込む
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query(value = "INSERT INTO timeline_entries (owner_id, activity_id, author_id, activity_type, created_at, score, affinity) " +
+                   "SELECT :ownerId, a.id, a.user_id, a.activity_type, a.created_at, " + FeedScore.SQL + " + m.affinity, m.affinity " +
+                   "FROM activities a CROSS JOIN LATERAL (SELECT CASE WHEN a.user_id <> :ownerId AND EXISTS (SELECT 1 FROM follows r " +
+                   "WHERE r.follower_id = a.user_id AND r.following_id = :ownerId) " +
+                   "THEN CAST(:mutualBonus AS double precision) ELSE 0 END AS affinity) m " +
+                   "WHERE a.user_id = :ownerId OR a.user_id IN (SELECT f.following_id FROM follows f WHERE f.follower_id = :ownerId) " +
+                   "ORDER BY a.created_at DESC, a.id DESC LIMIT :limit " +
+                   "ON CONFLICT DO NOTHING",
+           nativeQuery = true)
+    int rebuild(@Param("ownerId") Long ownerId, @Param("limit") int limit, @Param("mutualBonus") double mutualBonus);
+
+    // いいね数・コメント数が変わったアクティビティについて、それを含むタイムラインのスコアをまとめて再計算
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE timeline_entries t SET score = t.affinity + " +
+                   "(SELECT " + FeedScore.SQL + " FROM activities a WHERE a.id = t.activity_id) " +
+                   "WHERE t.activity_id IN (:activityIds)",
+           nativeQuery = true)
+    int refreshScoresIn(@Param("activityIds") Collection<Long> activityIds);
+
+    // ID範囲 (afterId, lastId] のうちスコア未計算（列の追加前に書き込まれた）エントリのスコアを計算
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE timeline_entries t SET score = t.affinity + " + FeedScore.SQL + " " +
+                   "FROM activities a WHERE a.id = t.activity_id AND t.id > :afterId AND t.id <= :lastId AND t.score = 0",
+           nativeQuery = true)
+    int initializeScores(@Param("afterId") Long afterId, @Param("lastId") Long lastId);
+
+    @Query("SELECT MAX(t.id) FROM TimelineEntry t")
+    Long findMaxId();
+
+    // 削除したアクティビティを全員のタイムラインから外す
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM TimelineEntry t WHERE t.activityId = :activityId")
+    int deleteByActivityId(@Param("activityId") Long activityId);
+
+    // フォロー解除時に相手のアクティビティを削除
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM TimelineEntry t WHERE t.ownerId = :ownerId AND t.authorId = :authorId")
+    int deleteByOwnerIdAndAuthorId(@Param("ownerId") Long ownerId, @Param("authorId") Long authorId);
+}
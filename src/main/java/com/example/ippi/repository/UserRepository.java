@@ -2,9 +2,12 @@ package com.example.ippi.repository;
 
 import com.example.ippi.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -17,4 +20,18 @@ public interface UserRepository extends JpaRepository<User, Long> {
     // ユーザー検索: name または customId に部分一致
     @Query("SELECT u FROM User u WHERE LOWER(u.name) LIKE LOWER(CONCAT('%', :query, '%')) OR LOWER(u.customId) LIKE LOWER(CONCAT('%', :query, '%'))")
     List<User> searchByNameOrCustomId(@Param("query") String query);
+
+    @Query("SELECT MAX(u.id) FROM User u")
+    Long findMaxId();
+
+    // ホームタイムラインを作成した日時（未作成の場合はnull）
+    @Query("SELECT u.timelineBuiltAt FROM User u WHERE u.id = :id")
+    Long findTimelineBuiltAt(@Param("id") Long id);
+
+    // フィード取得（読み取り専用トランザクション）の途中で呼ばれるため、別トランザクションで書き込む
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query(value = "UPDATE users SET timeline_built_at = :builtAt WHERE id = :id AND timeline_built_at IS NULL",
+           nativeQuery = true)
+    int markTimelineBuilt(@Param("id") Long id, @Param("builtAt") Long builtAt);
 }
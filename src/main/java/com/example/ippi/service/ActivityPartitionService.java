@@ -0,0 +1,245 @@
+package com.example.ippi.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * activities の月ごとのパーティション管理
+ *
+ * created_at（エポックミリ秒、UTCの月単位）で分割された activities に対し、
+ * 先の月のパーティションを事前に作成し、保持期間を過ぎた月を activities_archive へ移して切り離す。
+ * 既定パーティションがある場合（migration_partition_activities.sql の以前の版で作成したもの）は、その保持期間外の行も同様に移す。
+ * activities が分割テーブルでない場合（migration_partition_activities.sql の適用前）は何もしない
+ */
+@Service
+public class ActivityPartitionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActivityPartitionService.class);
+
+    private static final DateTimeFormatter SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final Pattern PARTITION_NAME = Pattern.compile("activities_p(\\d{6})");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    // 事前に作成しておく先の月数
+    @Value("${feed.partition.months-ahead:2}")
+    private int monthsAhead;
+
+    // activities に残す月数（これより古い月はアーカイブ）
+    @Value("${feed.partition.retention-months:12}")
+    private int retentionMonths;
+
+    // アーカイブ時にタイムラインエントリ・いいね・コメントを削除する1トランザクションあたりのアクティビティ数
+    @Value("${feed.partition.archive-batch-size:1000}")
+    private int archiveBatchSize;
+
+    // 既定パーティションがあり CONCURRENTLY で切り離せない場合に、activities のロックを待つ最大時間
+    @Value("${feed.partition.detach-lock-timeout-ms:5000}")
+    private long detachLockTimeoutMillis;
+
+    // アーカイブに時間がかかっても起動を止めない（その間の新しい行は事前に作成済みの月のパーティションに入る）
+    @Async("feedTaskExecutor")
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        maintain();
+    }
+
+    /**
+     * パーティションの作成とアーカイブ
+     */
+    @Scheduled(cron = "${feed.partition.maintenance-cron:0 0 3 * * *}")
+    public synchronized void maintain() {
+        if (!isPartitioned()) {
+            return;
+        }
+
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        for (int i = 0; i <= monthsAhead; i++) {
+            try {
+                createPartition(current.plusMonths(i));
+            } catch (RuntimeException e) {
+                // 既定パーティションに同じ月の行がある場合など。その月の行は既定パーティションに入り続ける
+                // （既定パーティションがない場合、翌月までに作成できなければその月の行は追加できない）
+                logger.warn("Failed to create activity partition for {}", current.plusMonths(i), e);
+            }
+        }
+
+        YearMonth oldestRetained = current.minusMonths(retentionMonths - 1L);
+        for (String partition : findPartitions()) {
+            Matcher matcher = PARTITION_NAME.matcher(partition);
+            if (!matcher.matches()) {
+                continue;
+            }
+            YearMonth month = YearMonth.parse(matcher.group(1), SUFFIX_FORMAT);
+            if (month.isBefore(oldestRetained)) {
+                try {
+                    archivePartition(partition);
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to archive partition {}, retrying on next run", partition, e);
+                }
+            }
+        }
+
+        try {
+            archiveDefaultPartition(startMillis(oldestRetained));
+        } catch (RuntimeException e) {
+            logger.warn("Failed to archive old rows of the default partition, retrying on next run", e);
+        }
+    }
+
+    private boolean isPartitioned() {
+        Integer count = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM pg_partitioned_table WHERE partrelid = to_regclass('activities')", Integer.class);
+        return count != null && count > 0;
+    }
+
+    private List<String> findPartitions() {
+        return jdbcTemplate.queryForList(
+            "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+                + "WHERE i.inhparent = to_regclass('activities') ORDER BY c.relname",
+            String.class);
+    }
+
+    private void createPartition(YearMonth month) {
+        String name = partitionName(month);
+        Integer exists = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM pg_class WHERE relname = ?", Integer.class, name);
+        if (exists != null && exists > 0) {
+            return;
+        }
+
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF activities FOR VALUES FROM ("
+            + startMillis(month) + ") TO (" + startMillis(month.plusMonths(1)) + ")");
+        logger.info("Created activity partition {}", name);
+    }
+
+    /**
+     * 1か月分を activities_archive へコピーし、関連する行を削除してからパーティションを切り離す
+     * 関連する行は activity_id のインデックスでアクティビティID範囲ごとに削除し、タイムライン全体は読まない。
+     * 途中で失敗しても、次回は同じ手順を最初からやり直せる（コピーは重複を無視し、削除済みの行は対象にならない）
+     */
+    private void archivePartition(String partition) {
+        int archived = jdbcTemplate.update(
+            "INSERT INTO activities_archive (id, user_id, activity_type, message, related_data, created_at) "
+                + "SELECT id, user_id, activity_type, message, related_data, created_at FROM " + partition + " "
+                + "ON CONFLICT (id) DO NOTHING");
+
+        long afterId = 0;
+        while (true) {
+            Long lastId = jdbcTemplate.queryForObject(
+                "SELECT MAX(id) FROM (SELECT id FROM " + partition + " WHERE id > ? ORDER BY id LIMIT ?) batch",
+                Long.class, afterId, archiveBatchSize);
+            if (lastId == null) {
+                break;
+            }
+            String activityIds = "SELECT id FROM " + partition + " WHERE id > ? AND id <= ?";
+            deleteDependents(activityIds, afterId, lastId);
+            afterId = lastId;
+        }
+
+        // activities は行単位で削除せず、パーティションごと切り離す
+        detachPartition(partition);
+        jdbcTemplate.execute("DROP TABLE " + partition);
+        logger.info("Archived {} activities of partition {}", archived, partition);
+    }
+
+    /**
+     * パーティションを activities から切り離す
+     * CONCURRENTLY の場合、activities へのロックは SHARE UPDATE EXCLUSIVE だけで、読み書きを止めない。
+     * トランザクションブロック内では実行できないため、トランザクションを使わず自動コミットで実行する。
+     * 前回の CONCURRENTLY が途中で中断されていた場合（切り離し待ちの状態）は FINALIZE で完了させる
+     */
+    private void detachPartition(String partition) {
+        Boolean pending = jdbcTemplate.queryForObject(
+            "SELECT i.inhdetachpending FROM pg_inherits i "
+                + "WHERE i.inhparent = to_regclass('activities') AND i.inhrelid = to_regclass(?)",
+            Boolean.class, partition);
+        if (Boolean.TRUE.equals(pending)) {
+            jdbcTemplate.execute("ALTER TABLE activities DETACH PARTITION " + partition + " FINALIZE");
+            return;
+        }
+
+        if (!hasDefaultPartition()) {
+            jdbcTemplate.execute("ALTER TABLE activities DETACH PARTITION " + partition + " CONCURRENTLY");
+            return;
+        }
+
+        // 既定パーティションがあると CONCURRENTLY は使えない。activities 全体を ACCESS EXCLUSIVE でロックするため、
+        // 長いクエリの後ろで読み書きを待たせ続けないよう、ロックを待つ時間を制限する（取得できなければ次回やり直す）
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("SET LOCAL lock_timeout = '" + detachLockTimeoutMillis + "ms'");
+            jdbcTemplate.execute("ALTER TABLE activities DETACH PARTITION " + partition);
+        });
+    }
+
+    private boolean hasDefaultPartition() {
+        Integer count = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM pg_partitioned_table WHERE partrelid = to_regclass('activities') "
+                + "AND partdefid <> 0", Integer.class);
+        return count != null && count > 0;
+    }
+
+    /**
+     * 既定パーティションの保持期間外の行をアーカイブして削除
+     * 月のパーティションがない期間の行だけが入るため、件数は少ない
+     */
+    private void archiveDefaultPartition(long before) {
+        Integer exists = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM pg_class WHERE relname = 'activities_default'", Integer.class);
+        if (exists == null || exists == 0) {
+            return;
+        }
+
+        String activityIds = "SELECT id FROM activities_default WHERE created_at < ?";
+        int[] archived = new int[1];
+        transactionTemplate.executeWithoutResult(status -> {
+            archived[0] = jdbcTemplate.update(
+                "INSERT INTO activities_archive (id, user_id, activity_type, message, related_data, created_at) "
+                    + "SELECT id, user_id, activity_type, message, related_data, created_at FROM activities_default "
+                    + "WHERE created_at < ? ON CONFLICT (id) DO NOTHING", before);
+            deleteDependents(activityIds, before);
+            jdbcTemplate.update("DELETE FROM activities_default WHERE created_at < ?", before);
+        });
+        if (archived[0] > 0) {
+            logger.info("Archived {} activities of the default partition", archived[0]);
+        }
+    }
+
+    // activityIds（アクティビティIDを返す副問い合わせ）のタイムラインエントリ・いいね・コメントを1つのトランザクションで削除
+    // activities への外部キーがないため、アクティビティとともに削除しないと参照先のない行が残る
+    private void deleteDependents(String activityIds, Object... args) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("DELETE FROM timeline_entries WHERE activity_id IN (" + activityIds + ")", args);
+            jdbcTemplate.update("DELETE FROM feed_likes WHERE activity_id IN (" + activityIds + ")", args);
+            jdbcTemplate.update("DELETE FROM feed_comments WHERE activity_id IN (" + activityIds + ")", args);
+        });
+    }
+
+    private static String partitionName(YearMonth month) {
+        return "activities_p" + month.format(SUFFIX_FORMAT);
+    }
+
+    private static long startMillis(YearMonth month) {
+        return month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+}
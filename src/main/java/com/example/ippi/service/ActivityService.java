@@ -1,24 +1,78 @@
 package com.example.ippi.service;
 
+import com.example.ippi.dto.FollowedData;
+import com.example.ippi.dto.WorkCompletedData;
 import com.example.ippi.entity.Activity;
 import com.example.ippi.entity.User;
 import com.example.ippi.repository.ActivityRepository;
+import com.example.ippi.repository.FeedCommentRepository;
+import com.example.ippi.repository.FeedLikeRepository;
+import com.example.ippi.repository.TimelineEntryRepository;
+import com.example.ippi.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class ActivityService {
 
+    private static final Logger logger = LoggerFactory.getLogger(ActivityService.class);
+
     @Autowired
     private ActivityRepository activityRepository;
 
+    @Autowired
+    private TimelineService timelineService;
+
+    @Autowired
+    private TimelineEntryRepository timelineEntryRepository;
+
+    @Autowired
+    private FeedLikeRepository feedLikeRepository;
+
+    @Autowired
+    private FeedCommentRepository feedCommentRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private RelatedDataMapper relatedDataMapper;
+
+    // フォローされたアクティビティをまとめる期間（最初のフォローから）
+    @Value("${feed.follow-activity.window-ms:3600000}")
+    private long followWindowMillis;
+
+    // relatedData に保持するフォロワーIDの上限（件数は followerCount に全員分）
+    @Value("${feed.follow-activity.max-follower-ids:50}")
+    private int maxFollowerIds;
+
+    // フォローされたユーザーID -> 集約中のフォロー
+    // 各 FollowAggregate は compute の中でのみ読み書きする
+    private final Map<Long, FollowAggregate> followAggregates = new ConcurrentHashMap<>();
+
     public void createWorkCompletedActivity(User user, int minutes) {
         int hours = minutes / 60;
         int mins = minutes % 60;
         String timeDisplay = hours + "時間" + mins + "分";
         String message = timeDisplay + "の作業を完了しました";
-        String relatedData = "{\"minutes\":" + minutes + "}";
-        
+        String relatedData = relatedDataMapper.write(new WorkCompletedData(minutes));
+
         Activity activity = new Activity(
             user,
             Activity.TYPE_WORK_COMPLETED,
@@ -26,25 +80,227 @@ public class ActivityService {
             relatedData,
             System.currentTimeMillis()
         );
-        activityRepository.save(activity);
+        save(activity);
     }
 
     /**
      * フォローされた時のアクティビティを作成
+     * 同じユーザーへのフォローは一定期間まとめ、1件のアクティビティ（「Aさんと他N人にフォローされました」）にする。
+     * 書き込みは flushFollowedActivities で行う
      * @param followedUser フォローされたユーザー（アクティビティの所有者）
      * @param follower フォローしたユーザー
      */
     public void createFollowedActivity(User followedUser, User follower) {
-        String message = follower.getName() + "さんにフォローされました";
-        String relatedData = "{\"followerId\":" + follower.getId() + ",\"followerName\":\"" + follower.getName() + "\"}";
-        
+        long now = System.currentTimeMillis();
+        followAggregates.compute(followedUser.getId(), (id, aggregate) -> {
+            // 期間を過ぎたものは書き込み済みであれば新しいアクティビティにする
+            if (aggregate == null || (aggregate.isExpired(now, followWindowMillis) && !aggregate.dirty)) {
+                aggregate = new FollowAggregate(followedUser, now);
+            }
+            aggregate.add(follower);
+            return aggregate;
+        });
+    }
+
+    /**
+     * フォロー解除時に、フォローされた時のアクティビティからフォロワーを外す
+     * 集約中のものはメモリ上で外し、書き込み済みのものは related_data.followerIds から検索して書き直す。
+     * フォロワーがいなくなったアクティビティは削除する
+     */
+    @Async("feedTaskExecutor")
+    public void removeFollowedActivity(Long followedUserId, Long followerId) {
+        Long[] aggregatedActivityId = new Long[1];
+        followAggregates.computeIfPresent(followedUserId, (id, aggregate) -> {
+            aggregatedActivityId[0] = aggregate.activityId;
+            aggregate.remove(followerId);
+            return aggregate;
+        });
+
+        for (Activity activity : activityRepository.findFollowedActivitiesReferencing(followedUserId, followerId)) {
+            // 集約中のものは次の書き込みで反映される
+            if (activity.getId().equals(aggregatedActivityId[0])) {
+                continue;
+            }
+            FollowedData data = relatedDataMapper.read(activity.getRelatedData(), FollowedData.class);
+            List<Long> followerIds = data.followerIds().stream()
+                .filter(id -> !id.equals(followerId))
+                .toList();
+            int followerCount = data.followerCount() - 1;
+            if (followerCount <= 0) {
+                deleteActivity(activity.getId());
+                continue;
+            }
+
+            // 表示していたフォロワーの場合は、残りのうち最も新しいフォロワーに差し替える
+            Long latestFollowerId = data.followerId();
+            String latestFollowerName = data.followerName();
+            if (followerId.equals(latestFollowerId)) {
+                latestFollowerId = followerIds.isEmpty() ? null : followerIds.get(0);
+                latestFollowerName = latestFollowerId != null
+                    ? userRepository.findById(latestFollowerId).map(User::getName).orElse(null)
+                    : null;
+            }
+            FollowedData updated = new FollowedData(latestFollowerId, latestFollowerName, followerIds, followerCount);
+            activityRepository.updateMessage(activity.getId(), followedMessage(updated), relatedDataMapper.write(updated));
+        }
+    }
+
+    /**
+     * 集約中のフォローをアクティビティに書き込む
+     * 初回は作成してタイムラインに配信し、以降は同じアクティビティのメッセージを更新する
+     */
+    @Scheduled(fixedDelayString = "${feed.follow-activity.flush-ms:10000}")
+    public synchronized void flushFollowedActivities() {
+        long now = System.currentTimeMillis();
+        for (Long followedUserId : new ArrayList<>(followAggregates.keySet())) {
+            FollowSnapshot[] holder = new FollowSnapshot[1];
+            followAggregates.computeIfPresent(followedUserId, (id, aggregate) -> {
+                if (aggregate.dirty) {
+                    holder[0] = aggregate.snapshot();
+                    aggregate.dirty = false;
+                }
+                return aggregate;
+            });
+
+            FollowSnapshot snapshot = holder[0];
+            Long activityId = null;
+            boolean written = true;
+            if (snapshot != null) {
+                try {
+                    activityId = writeFollowedActivity(snapshot);
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to write follow activity of user {}, retrying on next flush", followedUserId, e);
+                    written = false;
+                }
+            }
+
+            Long savedId = activityId;
+            boolean succeeded = written;
+            followAggregates.computeIfPresent(followedUserId, (id, aggregate) -> {
+                if (!succeeded) {
+                    aggregate.dirty = true;
+                } else if (snapshot != null && snapshot.followerCount() == 0) {
+                    // 全員がフォローを解除して削除した
+                    aggregate.activityId = null;
+                } else if (savedId != null) {
+                    aggregate.activityId = savedId;
+                }
+                // 期間を過ぎ、書き込み済みのものは破棄
+                return aggregate.isExpired(now, followWindowMillis) && !aggregate.dirty ? null : aggregate;
+            });
+        }
+    }
+
+    @PreDestroy
+    void flushOnShutdown() {
+        flushFollowedActivities();
+    }
+
+    private Long writeFollowedActivity(FollowSnapshot snapshot) {
+        // 全員がフォローを解除した場合
+        if (snapshot.followerCount() == 0) {
+            if (snapshot.activityId() != null) {
+                deleteActivity(snapshot.activityId());
+            }
+            return null;
+        }
+
+        FollowedData data = new FollowedData(snapshot.latestFollowerId(), snapshot.latestFollowerName(),
+            snapshot.followerIds(), snapshot.followerCount());
+        String message = followedMessage(data);
+        String relatedData = relatedDataMapper.write(data);
+
+        if (snapshot.activityId() != null) {
+            activityRepository.updateMessage(snapshot.activityId(), message, relatedData);
+            return snapshot.activityId();
+        }
+
         Activity activity = new Activity(
-            followedUser,
+            snapshot.followedUser(),
             Activity.TYPE_FOLLOW,
             message,
             relatedData,
-            System.currentTimeMillis()
+            snapshot.createdAt()
         );
+        save(activity);
+        return activity.getId();
+    }
+
+    private static String followedMessage(FollowedData data) {
+        if (data.followerName() == null) {
+            return data.followerCount() + "人にフォローされました";
+        }
+        return data.followerCount() == 1
+            ? data.followerName() + "さんにフォローされました"
+            : data.followerName() + "さんと他" + (data.followerCount() - 1) + "人にフォローされました";
+    }
+
+    // いいね・コメント・タイムラインのエントリとともに1つのトランザクションで削除する
+    // （activities への外部キーがないため、残すと参照先のない行になる）
+    private void deleteActivity(Long activityId) {
+        transactionTemplate.executeWithoutResult(status -> {
+            feedLikeRepository.deleteByActivityId(activityId);
+            feedCommentRepository.deleteByActivityId(activityId);
+            timelineEntryRepository.deleteByActivityId(activityId);
+            activityRepository.deleteByActivityId(activityId);
+        });
+    }
+
+    // 保存後、フォロワーのタイムラインへ非同期で書き込む
+    private void save(Activity activity) {
         activityRepository.save(activity);
+        timelineService.fanOut(
+            activity.getId(), activity.getUser().getId(), activity.getActivityType(), activity.getCreatedAt());
+    }
+
+    /**
+     * 1ユーザー・1期間分のフォローの集約
+     */
+    private final class FollowAggregate {
+        private final User followedUser;
+        private final long windowStart;
+        // フォロワーID -> 名前（新しいフォローが末尾）
+        private final LinkedHashMap<Long, String> followers = new LinkedHashMap<>();
+        private Long activityId; // 書き込み済みのアクティビティ
+        private boolean dirty;
+
+        FollowAggregate(User followedUser, long windowStart) {
+            this.followedUser = followedUser;
+            this.windowStart = windowStart;
+        }
+
+        void add(User follower) {
+            // フォロー・解除を繰り返しても1人として数える
+            if (!followers.containsKey(follower.getId())) {
+                followers.put(follower.getId(), follower.getName());
+                dirty = true;
+            }
+        }
+
+        void remove(Long followerId) {
+            if (followers.remove(followerId) != null) {
+                dirty = true;
+            }
+        }
+
+        boolean isExpired(long now, long windowMillis) {
+            return now - windowStart >= windowMillis;
+        }
+
+        FollowSnapshot snapshot() {
+            // 新しい順に上限件数まで
+            List<Long> ids = new ArrayList<>(followers.keySet());
+            List<Long> recentIds = new ArrayList<>();
+            for (int i = ids.size() - 1; i >= 0 && recentIds.size() < maxFollowerIds; i--) {
+                recentIds.add(ids.get(i));
+            }
+            Long latestFollowerId = recentIds.isEmpty() ? null : recentIds.get(0);
+            return new FollowSnapshot(followedUser, windowStart, activityId, latestFollowerId,
+                followers.get(latestFollowerId), recentIds, ids.size());
+        }
+    }
+
+    private record FollowSnapshot(User followedUser, long createdAt, Long activityId, Long latestFollowerId,
+                                  String latestFollowerName, List<Long> followerIds, int followerCount) {
     }
 }
@@ -0,0 +1,201 @@
+package com.example.ippi.service;
+
+import com.example.ippi.dto.FeedItemDTO;
+import com.example.ippi.repository.ActivityRepository;
+import com.example.ippi.repository.FeedLikeRepository;
+import com.example.ippi.util.ActivityTypeFilter;
+import com.example.ippi.util.FeedCursor;
+import com.example.ippi.util.LongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ディスカバー（全ユーザーの最近のアクティビティ）
+ *
+ * 全員に同じ内容を表示するため、定期的に作成したスナップショット（作成後は変更しない配列）を
+ * volatile フィールドの差し替えで公開する。閲覧ユーザーのいいね状態はスナップショット全体の分を1回で読んでキャッシュし、
+ * スナップショットの作り直しか、そのユーザーのいいねの書き込み（LikeWriteBuffer.changeVersionOf）まで使い続ける。
+ * 同じスナップショットを読む間は、リクエストごとのDBアクセスは発生しない
+ */
+@Service
+public class DiscoverTimelineService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiscoverTimelineService.class);
+
+    @Autowired
+    private ActivityRepository activityRepository;
+
+    @Autowired
+    private FeedLikeRepository feedLikeRepository;
+
+    @Autowired
+    private FeedHydrationService feedHydrationService;
+
+    @Autowired
+    private LikeWriteBuffer likeWriteBuffer;
+
+    @Autowired
+    private EngagementCounterService engagementCounterService;
+
+    // スナップショットに含めるアクティビティ数
+    @Value("${feed.discover.size:500}")
+    private int snapshotSize;
+
+    // スナップショットに含めるアクティビティの期間（ミリ秒）
+    @Value("${feed.discover.max-age-ms:604800000}")
+    private long maxAgeMillis;
+
+    // いいね状態をキャッシュする閲覧ユーザー数の上限
+    @Value("${feed.discover.viewer-cache-size:10000}")
+    private int viewerCacheSize;
+
+    // (createdAt, id) の降順。差し替えのみで、配列の中身は変更しない
+    private volatile FeedItemDTO[] snapshot = new FeedItemDTO[0];
+
+    // 閲覧ユーザーID -> いいね状態。アクセス順（LRU）で、自身で同期する
+    private final LinkedHashMap<Long, ViewerLikes> viewerLikes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ViewerLikes> eldest) {
+            return size() > viewerCacheSize;
+        }
+    };
+
+    /**
+     * スナップショットを作り直す
+     * コメントは作成時点のものを含める（いいね状態とカウンタ未反映の件数は閲覧ごとに read で設定）
+     */
+    @Scheduled(fixedDelayString = "${feed.discover.refresh-ms:30000}")
+    public void refresh() {
+        try {
+            List<FeedItemDTO> items = activityRepository.findRecentFeedItems(
+                System.currentTimeMillis() - maxAgeMillis,
+                ActivityTypeFilter.HOME_DEFAULT.getTypes(),
+                PageRequest.of(0, snapshotSize));
+            // カウンタ未反映の分は read で加えるため、保存済みの件数に戻す
+            long[] likeCounts = items.stream().mapToLong(FeedItemDTO::getLikeCount).toArray();
+            long[] commentCounts = items.stream().mapToLong(FeedItemDTO::getCommentCount).toArray();
+            feedHydrationService.hydrate(items, null);
+            for (int i = 0; i < items.size(); i++) {
+                FeedItemDTO item = items.get(i);
+                item.setLikeCount(likeCounts[i]);
+                item.setCommentCount(commentCounts[i]);
+                item.setComments(List.copyOf(item.getComments()));
+            }
+            snapshot = items.toArray(new FeedItemDTO[0]);
+        } catch (RuntimeException e) {
+            // 前回のスナップショットを使い続ける
+            logger.warn("Failed to refresh discover timeline", e);
+        }
+    }
+
+    /**
+     * ディスカバーの1ページ
+     *
+     * @param cursor キーセットページング用カーソル（先頭ページはnull）
+     * @param viewerId 閲覧しているユーザーのID（未ログインの場合はnull）
+     * @return フィードアイテム一覧（スナップショットの複製にいいね状態を設定したもの）
+     */
+    public List<FeedItemDTO> read(FeedCursor cursor, int size, Long viewerId) {
+        FeedItemDTO[] items = snapshot;
+        int from = cursor != null ? indexAfter(items, cursor) : 0;
+        int to = Math.min(from + size, items.length);
+
+        List<FeedItemDTO> page = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            page.add(copyOf(items[i]));
+        }
+        if (page.isEmpty()) {
+            return page;
+        }
+
+        LongHashSet likedActivityIds = viewerId != null ? likedActivityIdsOf(viewerId, items) : new LongHashSet();
+        for (FeedItemDTO item : page) {
+            // 書き込み待ちのいいねとカウンタ未反映の分を反映
+            Boolean pendingLiked = viewerId != null ? likeWriteBuffer.pendingState(item.getId(), viewerId) : null;
+            item.setLiked(pendingLiked != null ? pendingLiked : likedActivityIds.contains(item.getId()));
+            item.setLikeCount(likeWriteBuffer.likeCountOf(item.getId(), item.getLikeCount()));
+            item.setCommentCount(engagementCounterService.commentCount(item.getId(), item.getCommentCount()));
+        }
+        return page;
+    }
+
+    // 閲覧ユーザーがいいねしているスナップショット内のアクティビティID（書き込み待ちの分を除く）
+    // バージョンを feed_likes より先に読むため、読んでいる間に書き込まれた場合は次回読み直す
+    private LongHashSet likedActivityIdsOf(Long viewerId, FeedItemDTO[] items) {
+        long version = likeWriteBuffer.changeVersionOf(viewerId);
+        synchronized (viewerLikes) {
+            ViewerLikes cached = viewerLikes.get(viewerId);
+            if (cached != null && cached.snapshot() == items && cached.version() == version) {
+                return cached.likedActivityIds();
+            }
+        }
+
+        List<Long> activityIds = new ArrayList<>(items.length);
+        for (FeedItemDTO item : items) {
+            activityIds.add(item.getId());
+        }
+        LongHashSet liked = LongHashSet.of(
+            feedLikeRepository.findLikedActivityIdsAmong(viewerId, activityIds), activityIds.size());
+        synchronized (viewerLikes) {
+            viewerLikes.put(viewerId, new ViewerLikes(items, version, liked));
+        }
+        return liked;
+    }
+
+    // カーソルより後ろ（古い側）の最初の位置を二分探索で求める
+    private static int indexAfter(FeedItemDTO[] items, FeedCursor cursor) {
+        int low = 0;
+        int high = items.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            FeedItemDTO item = items[mid];
+            boolean newerOrSame = item.getCreatedAt() > cursor.getCreatedAt()
+                || (item.getCreatedAt() == cursor.getCreatedAt() && item.getId() >= cursor.getId());
+            if (newerOrSame) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // スナップショット作成時に読み込んだ値を元に、リクエストごとの値を設定するための複製
+    private static FeedItemDTO copyOf(FeedItemDTO item) {
+        FeedItemDTO copy = new FeedItemDTO(
+            item.getId(),
+            item.getUserId(),
+            item.getUserName(),
+            item.getUserCustomId(),
+            item.getUserProfileImageUrl(),
+            item.getActivityType(),
+            item.getMessage(),
+            item.getRelatedData(),
+            item.getCreatedAt(),
+            item.getLikeCount(),
+            item.getCommentCount()
+        );
+        copy.setComments(item.getComments());
+        return copy;
+    }
+
+    /**
+     * 閲覧ユーザーのいいね状態
+     *
+     * @param snapshot 読んだ時点のスナップショット（作り直されたら使わない）
+     * @param version 読む前の LikeWriteBuffer.changeVersionOf の値
+     * @param likedActivityIds いいねしているアクティビティID（作成後は変更しない）
+     */
+    private record ViewerLikes(FeedItemDTO[] snapshot, long version, LongHashSet likedActivityIds) {
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.ippi.service;
+
+import com.example.ippi.repository.ActivityRepository;
+import com.example.ippi.repository.TimelineEntryRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * いいね数・コメント数のインメモリカウンタ
+ *
+ * 増減はアクティビティごとの LongAdder（スレッド間で分散されたセル）に加算し、
+ * 定期的に差分だけを activities へまとめて書き込む。ランキング表示のスコアの再計算は、
+ * 件数が変わったアクティビティをまとめて、アクティビティごとに scoreRefreshMillis に1回までに抑える。
+ * 人気のアクティビティに操作が集中しても、同じ行の更新が並ぶことはない。
+ * 実際の件数との突き合わせ（reconcile）は、件数の変更と差分の書き込みを止めてから行う
+ */
+@Service
+public class EngagementCounterService {
+
+    private static final Logger logger = LoggerFactory.getLogger(EngagementCounterService.class);
+
+    @Autowired
+    private ActivityRepository activityRepository;
+
+    @Autowired
+    private TimelineEntryRepository timelineEntryRepository;
+
+    // ランキング表示のスコアを再計算する、アクティビティごとの最短間隔（ミリ秒）
+    @Value("${feed.engagement.score-refresh-ms:30000}")
+    private long scoreRefreshMillis;
+
+    private final Map<Long, Counter> counters = new ConcurrentHashMap<>();
+
+    // 件数を変更するトランザクションは共有ロックを行の変更からコミット後の加算まで保持し、突き合わせは排他ロックで待つ
+    private final ReentrantReadWriteLock reconcileLock = new ReentrantReadWriteLock();
+
+    /**
+     * トランザクション内で行ったいいね・コメントの増減を記録する
+     * 差分はコミット後に加算し（ロールバックした変更は数えない）、それまで突き合わせを待たせる
+     */
+    public void recordChange(Long activityId, long likeDelta, long commentDelta) {
+        if (likeDelta == 0 && commentDelta == 0) {
+            return;
+        }
+        reconcileLock.readLock().lock();
+        try {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    addLikes(activityId, likeDelta);
+                    addComments(activityId, commentDelta);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    reconcileLock.readLock().unlock();
+                }
+            });
+        } catch (IllegalStateException e) {
+            // トランザクション外から呼ばれた場合
+            reconcileLock.readLock().unlock();
+            throw e;
+        }
+    }
+
+    public void addLikes(Long activityId, long delta) {
+        if (delta != 0) {
+            add(activityId, delta, 0);
+        }
+    }
+
+    public void addComments(Long activityId, long delta) {
+        if (delta != 0) {
+            add(activityId, 0, delta);
+        }
+    }
+
+    // 破棄されたカウンタには加算せず、新しいカウンタで加算し直す
+    private void add(Long activityId, long likeDelta, long commentDelta) {
+        while (true) {
+            Counter counter = counterOf(activityId);
+            if (!counter.enter()) {
+                continue;
+            }
+            try {
+                counter.likes.add(likeDelta);
+                counter.comments.add(commentDelta);
+                return;
+            } finally {
+                counter.exit();
+            }
+        }
+    }
+
+    /**
+     * 未反映の差分を含めたいいね数
+     *
+     * @param persistedCount activities.like_count の値
+     */
+    public long likeCount(Long activityId, long persistedCount) {
+        Counter counter = counters.get(activityId);
+        return counter != null ? persistedCount + counter.likes.sum() : persistedCount;
+    }
+
+    /**
+     * 未反映の差分を含めたコメント数
+     *
+     * @param persistedCount activities.comment_count の値
+     */
+    public long commentCount(Long activityId, long persistedCount) {
+        Counter counter = counters.get(activityId);
+        return counter != null ? persistedCount + counter.comments.sum() : persistedCount;
+    }
+
+    private Counter counterOf(Long activityId) {
+        return counters.computeIfAbsent(activityId, id -> new Counter());
+    }
+
+    /**
+     * 差分を activities に書き込む
+     * 2回続けて差分がなかったカウンタは、スコアの再計算が済んでいて加算中でなければ破棄する
+     */
+    @Scheduled(fixedDelayString = "${feed.engagement.counter-flush-ms:1000}")
+    public synchronized void flush() {
+        writeDeltas();
+    }
+
+    /**
+     * ID範囲 (afterId, lastId] のいいね数・コメント数を実際の件数に合わせる
+     *
+     * 突き合わせの COUNT(*) にはコミット済みの行がすべて含まれるため、その差分が未反映のまま残っていると
+     * 書き込み時に二重に加算される。件数の変更（recordChange）を止め、未反映の差分をすべて書き込んでから行う。
+     * flush と同じモニタで実行するため、書き込み途中の差分とも重ならない
+     *
+     * @return 修正した行数（差分を書き込めなかった場合は突き合わせずに0）
+     */
+    public synchronized int reconcile(long afterId, long lastId) {
+        reconcileLock.writeLock().lock();
+        try {
+            if (!writeDeltas()) {
+                return 0;
+            }
+            return activityRepository.reconcileCounts(afterId, lastId);
+        } finally {
+            reconcileLock.writeLock().unlock();
+        }
+    }
+
+    // 差分を書き込む（失敗した分はカウンタに戻し、false を返す）
+    private boolean writeDeltas() {
+        boolean allWritten = true;
+        int written = 0;
+        long now = System.currentTimeMillis();
+        List<Long> scoreRefreshIds = new ArrayList<>();
+        List<Counter> scoreRefreshCounters = new ArrayList<>();
+        for (Map.Entry<Long, Counter> entry : counters.entrySet()) {
+            Long activityId = entry.getKey();
+            Counter counter = entry.getValue();
+
+            long likeDelta = counter.likes.sumThenReset();
+            long commentDelta = counter.comments.sumThenReset();
+
+            boolean retired = false;
+            if (likeDelta == 0 && commentDelta == 0) {
+                if (counter.idle && !counter.scoreStale && counter.retire()) {
+                    retired = true;
+                    // 加算中のスレッドがいない時だけ破棄する（以降の加算は新しいカウンタに行われる）
+                    counters.remove(activityId, counter);
+                    likeDelta = counter.likes.sumThenReset();
+                    commentDelta = counter.comments.sumThenReset();
+                }
+                counter.idle = true;
+            } else {
+                counter.idle = false;
+            }
+
+            if (likeDelta != 0 || commentDelta != 0) {
+                try {
+                    activityRepository.incrementCounts(activityId, likeDelta, commentDelta);
+                    written++;
+                    counter.scoreStale = true;
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to write engagement counts of activity {}, retrying on next flush", activityId, e);
+                    addLikes(activityId, likeDelta);
+                    addComments(activityId, commentDelta);
+                    allWritten = false;
+                    continue;
+                }
+            }
+
+            // 破棄したカウンタは次回の対象にならないため、間隔によらず再計算する
+            if (counter.scoreStale && (retired || now - counter.scoreRefreshedAt >= scoreRefreshMillis)) {
+                scoreRefreshIds.add(activityId);
+                scoreRefreshCounters.add(counter);
+            }
+        }
+
+        // ランキング表示のスコアを反映後の件数でまとめて再計算（失敗した場合は次回に再計算）
+        if (!scoreRefreshIds.isEmpty()) {
+            try {
+                timelineEntryRepository.refreshScoresIn(scoreRefreshIds);
+                for (Counter counter : scoreRefreshCounters) {
+                    counter.scoreStale = false;
+                    counter.scoreRefreshedAt = now;
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Failed to refresh ranking scores of {} activities", scoreRefreshIds.size(), e);
+            }
+        }
+
+        if (written > 0) {
+            logger.debug("Wrote engagement counts of {} activities", written);
+        }
+        return allWritten;
+    }
+
+    @PreDestroy
+    void flushOnShutdown() {
+        flush();
+    }
+
+    private static final class Counter {
+        private final LongAdder likes = new LongAdder();
+        private final LongAdder comments = new LongAdder();
+        // 加算中のスレッド数（破棄後は-1）
+        private final AtomicInteger adders = new AtomicInteger();
+        // 以下は flush からのみ参照
+        // 前回の書き込みで差分がなかったか
+        private boolean idle;
+        // 書き込んだ件数がスコアに未反映か
+        private boolean scoreStale;
+        private long scoreRefreshedAt;
+
+        // 加算を始める（破棄済みの場合は false）
+        boolean enter() {
+            while (true) {
+                int current = adders.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (adders.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void exit() {
+            adders.decrementAndGet();
+        }
+
+        // 加算中のスレッドがいなければ破棄済みにする
+        boolean retire() {
+            return adders.compareAndSet(0, -1);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.ippi.service;
+
+import com.example.ippi.entity.Activity;
+import com.example.ippi.entity.FeedComment;
+import com.example.ippi.entity.User;
+import com.example.ippi.repository.ActivityRepository;
+import com.example.ippi.repository.FeedCommentRepository;
+import com.example.ippi.repository.FeedLikeRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+
+/**
+ * フィードのいいね・コメントサービス
+ *
+ * いいね・コメントの増減を EngagementCounterService に加算し、activities の
+ * like_count / comment_count へまとめて反映することで、フィード表示時に件数を数え直さないようにする。
+ * いいねは LikeWriteBuffer でまとめてから書き込む
+ */
+@Service
+public class FeedEngagementService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FeedEngagementService.class);
+
+    @Autowired
+    private FeedLikeRepository feedLikeRepository;
+
+    @Autowired
+    private FeedCommentRepository feedCommentRepository;
+
+    @Autowired
+    private ActivityRepository activityRepository;
+
+    @Autowired
+    private EngagementCounterService engagementCounterService;
+
+    @Value("${feed.engagement.reconcile-batch-size:1000}")
+    private int reconcileBatchSize;
+
+    /**
+     * いいねの追加・削除をまとめて反映（LikeWriteBuffer から呼ばれる）
+     * 実際に追加・削除された行数だけいいね数を加算するため、重複したいいねで件数がずれることはない
+     *
+     * @return like_count に加算した値
+     */
+    @Transactional
+    public long applyLikeChanges(Long activityId, Collection<Long> likedUserIds, Collection<Long> unlikedUserIds) {
+        long delta = 0;
+        if (!likedUserIds.isEmpty()) {
+            delta += feedLikeRepository.insertLikes(activityId, likedUserIds, System.currentTimeMillis());
+        }
+        if (!unlikedUserIds.isEmpty()) {
+            delta -= feedLikeRepository.deleteLikes(activityId, unlikedUserIds);
+        }
+        engagementCounterService.recordChange(activityId, delta, 0);
+        return delta;
+    }
+
+    @Transactional
+    public FeedComment addComment(Activity activity, User user, String text) {
+        FeedComment comment = new FeedComment(activity, user, text, System.currentTimeMillis());
+        feedCommentRepository.save(comment);
+        engagementCounterService.recordChange(activity.getId(), 0, 1);
+        return comment;
+    }
+
+    @Transactional
+    public void deleteComment(FeedComment comment) {
+        feedCommentRepository.delete(comment);
+        engagementCounterService.recordChange(comment.getActivity().getId(), 0, -1);
+    }
+
+    // 集計列の追加前に作成されたアクティビティのため、起動時にも一度修正する
+    @Async("feedTaskExecutor")
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileOnStartup() {
+        reconcileCounts();
+    }
+
+    /**
+     * いいね数・コメント数のずれを修正
+     * ID範囲ごとに実際の件数と突き合わせ、ずれている行だけ更新する
+     * 各範囲はいいね・コメントの書き込みと未反映の差分の書き込みを止めて行う（EngagementCounterService.reconcile）
+     */
+    @Scheduled(cron = "${feed.engagement.reconcile-cron:0 30 4 * * *}")
+    public void reconcileCounts() {
+        Long maxId = activityRepository.findMaxId();
+        if (maxId == null) {
+            return;
+        }
+
+        long repaired = 0;
+        for (long afterId = 0; afterId < maxId; afterId += reconcileBatchSize) {
+            repaired += engagementCounterService.reconcile(afterId, afterId + reconcileBatchSize);
+        }
+
+        if (repaired > 0) {
+            logger.info("Repaired engagement counts of {} activities", repaired);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.ippi.service;
+
+import com.example.ippi.dto.CommentDTO;
+import com.example.ippi.dto.CommentPreview;
+import com.example.ippi.dto.FeedItemDTO;
+import com.example.ippi.repository.FeedCommentRepository;
+import com.example.ippi.repository.FeedLikeRepository;
+import com.example.ippi.util.LongHashSet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * フィードアイテム組み立てサービス
+ *
+ * フィードアイテム本体（いいね数・コメント数を含む）はプロジェクションで取得済みのものを受け取り、
+ * 各アクティビティの最新コメントと閲覧ユーザーのいいね状態だけをページ単位でまとめて付け加える
+ */
+@Service
+public class FeedHydrationService {
+
+    @Autowired
+    private FeedLikeRepository feedLikeRepository;
+
+    @Autowired
+    private FeedCommentRepository feedCommentRepository;
+
+    @Autowired
+    private LikeWriteBuffer likeWriteBuffer;
+
+    @Autowired
+    private EngagementCounterService engagementCounterService;
+
+    // フィードに埋め込むコメントの件数（それ以外は /feed/{feedId}/comments で取得）
+    @Value("${feed.comments.preview-size:3}")
+    private int commentPreviewSize;
+
+    /**
+     * フィードアイテムにコメントといいね状態を設定
+     *
+     * @param items プロジェクションで取得したフィードアイテム一覧
+     * @param viewerId 閲覧しているユーザーのID（未ログインの場合はnull）
+     * @return items（順序はそのまま）
+     */
+    @Transactional(readOnly = true)
+    public List<FeedItemDTO> hydrate(List<FeedItemDTO> items, Long viewerId) {
+        if (items.isEmpty()) {
+            return items;
+        }
+
+        List<Long> activityIds = items.stream()
+            .map(FeedItemDTO::getId)
+            .collect(Collectors.toList());
+
+        // 各アクティビティの最新コメント（ROW_NUMBER() でアクティビティごとに番号を付け、ページ全体を1回で取得）
+        List<CommentPreview> latestComments = new ArrayList<>(
+            feedCommentRepository.findLatestByActivityIds(activityIds, commentPreviewSize));
+        latestComments.sort(Comparator.comparing(CommentPreview::getCreatedAt).thenComparing(CommentPreview::getId));
+
+        Map<Long, List<CommentDTO>> commentsByActivity = new HashMap<>();
+        for (CommentPreview comment : latestComments) {
+            commentsByActivity
+                .computeIfAbsent(comment.getActivityId(), id -> new ArrayList<>())
+                .add(new CommentDTO(
+                    comment.getId(),
+                    comment.getUserId(),
+                    comment.getUserName(),
+                    comment.getUserProfileImageUrl(),
+                    comment.getText(),
+                    comment.getCreatedAt()
+                ));
+        }
+
+        // 閲覧ユーザーがいいねしたアクティビティ（このページの分だけ）
+        LongHashSet likedActivityIds = viewerId != null
+            ? LongHashSet.of(feedLikeRepository.findLikedActivityIdsAmong(viewerId, activityIds), activityIds.size())
+            : new LongHashSet();
+
+        for (FeedItemDTO item : items) {
+            // 書き込み待ちのいいねを反映
+            Boolean pendingLiked = viewerId != null ? likeWriteBuffer.pendingState(item.getId(), viewerId) : null;
+            item.setLiked(pendingLiked != null ? pendingLiked : likedActivityIds.contains(item.getId()));
+            item.setLikeCount(likeWriteBuffer.likeCountOf(item.getId(), item.getLikeCount()));
+            item.setCommentCount(engagementCounterService.commentCount(item.getId(), item.getCommentCount()));
+            item.setComments(commentsByActivity.getOrDefault(item.getId(), new ArrayList<>()));
+        }
+        return items;
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.ippi.service;
+
+import com.example.ippi.dto.CommentDTO;
+import com.example.ippi.dto.FeedItemDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * フィードアイテムのJSON（UTF-8）のキャッシュ
+ *
+ * アクティビティごとに liked=false で出力したJSONと、出力に使った liked 以外の値を保持する。
+ * 取り出す時は値を比較し、1つでも異なれば出力し直して差し替える（ハッシュの衝突で古い内容を返さない）。
+ * レスポンスはキャッシュしたバイト列を連結し、閲覧ユーザーがいいねしている場合だけ liked の値を差し替えて作る。
+ * 同じアクティビティを多くのフォロワーが読んでも Jackson による出力は内容が変わった時の1回になる。
+ * アクティビティIDで分けた区画ごとにロックし、区画ごとにバイト数の上限を超えた場合は最も使われていないものから破棄する（LRU）
+ */
+@Component
+public class FeedItemJsonCache {
+
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${feed.json-cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    // ロックを分ける区画数（2の累乗）
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * フィードアイテムとその他の項目を1つのJSONオブジェクトとして出力
+     * 例: {"items":[...],"hasMore":true,"nextCursor":"..."}
+     *
+     * @param items 組み立て済みのフィードアイテム（liked を含む）
+     * @param fields items 以外の項目（順序どおりに出力）
+     */
+    public byte[] writePage(List<FeedItemDTO> items, Map<String, Object> fields) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 * (items.size() + 1));
+        out.writeBytes("{\"items\":[".getBytes(StandardCharsets.US_ASCII));
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            FeedItemDTO item = items.get(i);
+            fragmentOf(item).writeTo(out, item.isLiked());
+        }
+        out.write(']');
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            out.write(',');
+            out.writeBytes(serialize(field.getKey()));
+            out.write(':');
+            out.writeBytes(serialize(field.getValue()));
+        }
+        out.write('}');
+        return out.toByteArray();
+    }
+
+    private Fragment fragmentOf(FeedItemDTO item) {
+        Content content = Content.of(item);
+        Stripe stripe = stripes[Long.hashCode(item.getId() * 0x9E3779B97F4A7C15L) & (STRIPES - 1)];
+        Fragment cached = stripe.get(item.getId());
+        if (cached != null && cached.content.equals(content)) {
+            return cached;
+        }
+
+        Fragment fragment = render(item, content);
+        stripe.put(item.getId(), fragment, maxBytes / STRIPES);
+        return fragment;
+    }
+
+    // liked=false と liked=true で出力し、最初に異なる位置を liked の値の位置とする
+    private Fragment render(FeedItemDTO item, Content content) {
+        boolean liked = item.isLiked();
+        try {
+            item.setLiked(false);
+            byte[] unliked = serialize(item);
+            item.setLiked(true);
+            byte[] likedJson = serialize(item);
+            int offset = Arrays.mismatch(unliked, likedJson);
+            if (offset < 0 || !Arrays.equals(unliked, offset, offset + FALSE.length, FALSE, 0, FALSE.length)) {
+                throw new IllegalStateException("Failed to locate liked in feed item " + item.getId());
+            }
+            return new Fragment(content, unliked, offset);
+        } finally {
+            item.setLiked(liked);
+        }
+    }
+
+    private byte[] serialize(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize feed item", e);
+        }
+    }
+
+    /**
+     * アクティビティIDで分けた区画（アクセス順の LRU、自身で同期する）
+     */
+    private static final class Stripe {
+        // アクセス順（先頭が最も使われていない）
+        private final LinkedHashMap<Long, Fragment> fragments = new LinkedHashMap<>(16, 0.75f, true);
+        private long totalBytes;
+
+        synchronized Fragment get(Long activityId) {
+            return fragments.get(activityId);
+        }
+
+        synchronized void put(Long activityId, Fragment fragment, long maxBytes) {
+            Fragment previous = fragments.put(activityId, fragment);
+            totalBytes += fragment.json.length - (previous != null ? previous.json.length : 0);
+            Iterator<Fragment> eldest = fragments.values().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                totalBytes -= eldest.next().json.length;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * 出力に使った liked 以外の値（すべて一致する場合だけキャッシュした出力を使う）
+     */
+    private record Content(Long userId, String userName, String userCustomId, String userProfileImageUrl,
+                           String activityType, String message, String relatedData, Long createdAt,
+                           long likeCount, long commentCount, List<CommentContent> comments) {
+
+        static Content of(FeedItemDTO item) {
+            List<CommentContent> comments = null;
+            if (item.getComments() != null) {
+                comments = new ArrayList<>(item.getComments().size());
+                for (CommentDTO comment : item.getComments()) {
+                    comments.add(new CommentContent(comment.getId(), comment.getUserId(), comment.getUserName(),
+                        comment.getUserProfileImageUrl(), comment.getText(), comment.getCreatedAt()));
+                }
+            }
+            return new Content(item.getUserId(), item.getUserName(), item.getUserCustomId(),
+                item.getUserProfileImageUrl(), item.getActivityType(), item.getMessage(), item.getRelatedData(),
+                item.getCreatedAt(), item.getLikeCount(), item.getCommentCount(), comments);
+        }
+    }
+
+    private record CommentContent(Long id, Long userId, String userName, String userProfileImageUrl,
+                                  String text, Long createdAt) {
+    }
+
+    /**
+     * liked=false で出力したJSONと、その "false" の位置
+     */
+    private record Fragment(Content content, byte[] json, int likedOffset) {
+
+        void writeTo(ByteArrayOutputStream out, boolean liked) {
+            if (!liked) {
+                out.write(json, 0, json.length);
+                return;
+            }
+            out.write(json, 0, likedOffset);
+            out.write(TRUE, 0, TRUE.length);
+            int rest = likedOffset + FALSE.length;
+            out.write(json, rest, json.length - rest);
+        }
+    }
+}
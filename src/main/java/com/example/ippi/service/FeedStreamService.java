@@ -0,0 +1,239 @@
+package com.example.ippi.service;
+
+import com.example.ippi.dto.FeedItemDTO;
+import com.example.ippi.entity.User;
+import com.example.ippi.repository.ActivityRepository;
+import com.example.ippi.repository.FollowRepository;
+import com.example.ippi.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * フィードのライブ配信サービス（Server-Sent Events）
+ *
+ * ユーザーIDごとに購読中の接続を保持し、フォロー中ユーザーの新しいアクティビティを配信する。
+ * 接続ごとに上限付きのバッファを持ち、送信は共有のスレッドプールでまとめて行うため、
+ * 待機中の接続がスレッドを占有することはない
+ */
+@Service
+public class FeedStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FeedStreamService.class);
+
+    // 購読者の所属判定をまとめて行う件数
+    private static final int SUBSCRIBER_LOOKUP_BATCH_SIZE = 1000;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ActivityRepository activityRepository;
+
+    @Autowired
+    private FollowRepository followRepository;
+
+    @Autowired
+    private SocialGraphService socialGraphService;
+
+    @Autowired
+    @Qualifier("feedStreamExecutor")
+    private Executor feedStreamExecutor;
+
+    @Value("${feed.stream.timeout-ms:1800000}")
+    private long timeoutMillis;
+
+    @Value("${feed.stream.buffer-size:50}")
+    private int bufferSize;
+
+    private final Map<Long, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * ライブ配信を購読
+     *
+     * ユーザーの取得はリクエストスレッドでは行わない。
+     * リクエストスレッドでクエリを実行すると、非同期処理の間
+     * Open Session In View のコネクションが保持され続けるため
+     */
+    public SseEmitter subscribe(String email) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+
+        feedStreamExecutor.execute(() -> {
+            Optional<User> userOpt = userRepository.findByEmail(email);
+            if (userOpt.isEmpty()) {
+                emitter.completeWithError(new IllegalStateException("User not found"));
+                return;
+            }
+
+            Long userId = userOpt.get().getId();
+            Subscription subscription = new Subscription(userId, emitter, bufferSize);
+            emitter.onCompletion(() -> unsubscribe(subscription));
+            emitter.onTimeout(() -> unsubscribe(subscription));
+            emitter.onError(error -> unsubscribe(subscription));
+            subscriptions.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(subscription);
+
+            try {
+                emitter.send(SseEmitter.event().name("connected").data(Map.of("userId", userId)));
+            } catch (IOException e) {
+                unsubscribe(subscription);
+            }
+        });
+
+        return emitter;
+    }
+
+    public boolean isSubscribed(Long userId) {
+        return subscriptions.containsKey(userId);
+    }
+
+    /**
+     * userId をフォローしている購読中のユーザーを取得（プル配信対象のユーザー用）
+     */
+    public List<Long> findSubscribedFollowers(Long userId) {
+        List<Long> candidates = new ArrayList<>(subscriptions.keySet());
+        List<Long> followers = new ArrayList<>();
+        if (socialGraphService.isReady()) {
+            for (Long candidate : candidates) {
+                if (socialGraphService.isFollowing(candidate, userId)) {
+                    followers.add(candidate);
+                }
+            }
+            return followers;
+        }
+        for (int from = 0; from < candidates.size(); from += SUBSCRIBER_LOOKUP_BATCH_SIZE) {
+            List<Long> batch = candidates.subList(from, Math.min(from + SUBSCRIBER_LOOKUP_BATCH_SIZE, candidates.size()));
+            followers.addAll(followRepository.findFollowerIdsAmong(userId, batch));
+        }
+        return followers;
+    }
+
+    /**
+     * アクティビティを購読中の受信者へ配信
+     *
+     * @param createdAt アクティビティの作成日時（パーティションの絞り込みに使う）
+     * @param recipientIds 配信先のユーザーID（購読していないユーザーは無視）
+     */
+    public void publishActivity(Long activityId, Long createdAt, Collection<Long> recipientIds) {
+        List<Long> subscribed = recipientIds.stream().filter(this::isSubscribed).toList();
+        if (subscribed.isEmpty()) {
+            return;
+        }
+
+        List<FeedItemDTO> items = activityRepository.findFeedItemsByIdInRange(List.of(activityId), createdAt, createdAt);
+        if (items.isEmpty()) {
+            return;
+        }
+
+        // 新規アクティビティのため、コメントはまだない
+        FeedItemDTO item = items.get(0);
+        item.setComments(new ArrayList<>());
+        for (Long userId : subscribed) {
+            Set<Subscription> userSubscriptions = subscriptions.get(userId);
+            if (userSubscriptions != null) {
+                userSubscriptions.forEach(subscription -> subscription.enqueue(item));
+            }
+        }
+    }
+
+    /**
+     * 接続維持のため定期的にコメント行を送信し、切断済みの接続を取り除く
+     * 送信は配信用のスレッドプールで接続ごとに行う（遅いクライアントがスケジューラのスレッドを止めないように）
+     */
+    @Scheduled(fixedDelayString = "${feed.stream.heartbeat-ms:25000}")
+    public void sendHeartbeats() {
+        for (Set<Subscription> userSubscriptions : subscriptions.values()) {
+            userSubscriptions.forEach(Subscription::requestHeartbeat);
+        }
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptions.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        subscriptions.computeIfPresent(subscription.userId, (id, userSubscriptions) -> {
+            userSubscriptions.remove(subscription);
+            return userSubscriptions.isEmpty() ? null : userSubscriptions;
+        });
+    }
+
+    /**
+     * 1接続分の購読
+     * 送信待ちが上限を超えた場合は古いものから破棄する（クライアントは /feed で取り直せる）
+     */
+    private final class Subscription {
+        private final Long userId;
+        private final SseEmitter emitter;
+        private final ArrayBlockingQueue<FeedItemDTO> buffer;
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+        private final AtomicBoolean heartbeatPending = new AtomicBoolean(false);
+
+        Subscription(Long userId, SseEmitter emitter, int bufferSize) {
+            this.userId = userId;
+            this.emitter = emitter;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        void enqueue(FeedItemDTO item) {
+            while (!buffer.offer(item)) {
+                buffer.poll();
+            }
+            scheduleDrain();
+        }
+
+        // 送信待ちのアクティビティと同じスレッドで送り、1つの接続への送信が重ならないようにする
+        void requestHeartbeat() {
+            heartbeatPending.set(true);
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                feedStreamExecutor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                if (heartbeatPending.getAndSet(false)) {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                }
+                FeedItemDTO item;
+                while ((item = buffer.poll()) != null) {
+                    emitter.send(SseEmitter.event()
+                        .name("activity")
+                        .id(String.valueOf(item.getId()))
+                        .data(item));
+                }
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Feed stream of user {} closed: {}", userId, e.getMessage());
+                unsubscribe(this);
+                return;
+            } finally {
+                draining.set(false);
+            }
+
+            // drain 終了直前に追加されたものを取りこぼさない
+            if (!buffer.isEmpty() || heartbeatPending.get()) {
+                scheduleDrain();
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.ippi.service;
+
+import com.example.ippi.util.CountingBloomFilter;
+import com.example.ippi.util.LongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * (フォロワー, フォロー対象) の組のブルームフィルタによるフォロー判定の前段
+ *
+ * フォロー判定の多くは「フォローしていない」になるため、フィルタに含まれない組は follows を読まずに false を返し、
+ * 含まれる可能性がある組だけリポジトリで確認する。フォロー関係のインデックス（SocialGraphService）の
+ * 読み込み前や無効時に使う。1組あたり数バイトのため、インデックスよりはるかに少ないメモリで保持できる。
+ * フォロー・フォロー解除のコミット後に加算・減算し、定期的に現在の件数に合わせた大きさで作り直す
+ */
+@Service
+public class FollowFilterService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FollowFilterService.class);
+
+    private static final long MIN_EXPECTED_EDGES = 1024;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${follow.bloom.enabled:true}")
+    private boolean enabled;
+
+    // 想定するフォロー関係の数のときの偽陽性率
+    @Value("${follow.bloom.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    // 作成時のフォロー関係の数に対する想定数の倍率（作り直すまでの増加分）
+    @Value("${follow.bloom.headroom:2.0}")
+    private double headroom;
+
+    // 作成時に1回の往復で取得する行数
+    @Value("${follow.bloom.fetch-size:10000}")
+    private int fetchSize;
+
+    // 判定に使うフィルタ（作成前は null）
+    private volatile CountingBloomFilter filter;
+    private volatile long expectedEdges;
+
+    // 作成中のフィルタ。this で同期する
+    private CountingBloomFilter building;
+
+    // 現在のフィルタでの判定結果の件数
+    private volatile Counters counters = new Counters();
+
+    public boolean isReady() {
+        return filter != null;
+    }
+
+    /**
+     * フォローしているか
+     * フィルタに含まれない場合は false、含まれる可能性がある場合（作成前を含む）は lookup の結果を返す
+     */
+    public boolean isFollowing(long followerId, long followingId, BooleanSupplier lookup) {
+        CountingBloomFilter current = filter;
+        if (current == null) {
+            return lookup.getAsBoolean();
+        }
+        Counters currentCounters = counters;
+        if (!current.mightContain(followerId, followingId)) {
+            currentCounters.definiteNegatives.increment();
+            return false;
+        }
+        boolean following = lookup.getAsBoolean();
+        currentCounters.record(1, following ? 1 : 0);
+        return following;
+    }
+
+    /**
+     * followerId が candidateIds のうちフォローしているユーザーID
+     * フィルタに含まれる可能性がある候補だけを lookup に渡す（候補がなければ lookup を呼ばない）
+     */
+    public LongHashSet findFollowingAmong(long followerId, List<Long> candidateIds,
+                                          Function<List<Long>, LongHashSet> lookup) {
+        CountingBloomFilter current = filter;
+        if (current == null) {
+            return lookup.apply(candidateIds);
+        }
+        Counters currentCounters = counters;
+        List<Long> possibleIds = new ArrayList<>(candidateIds.size());
+        for (Long candidateId : candidateIds) {
+            if (current.mightContain(followerId, candidateId)) {
+                possibleIds.add(candidateId);
+            } else {
+                currentCounters.definiteNegatives.increment();
+            }
+        }
+        if (possibleIds.isEmpty()) {
+            return new LongHashSet();
+        }
+        LongHashSet followingIds = lookup.apply(possibleIds);
+        currentCounters.record(possibleIds.size(), followingIds.size());
+        return followingIds;
+    }
+
+    /**
+     * フォロー関係を追加（フォローのコミット後に呼ぶ）
+     */
+    public synchronized void add(long followerId, long followingId) {
+        if (filter != null) {
+            filter.add(followerId, followingId);
+        }
+        if (building != null) {
+            building.add(followerId, followingId);
+        }
+    }
+
+    /**
+     * フォロー関係を削除（フォロー解除のコミット後に呼ぶ）
+     * 作成中のフィルタには反映しない（読み込む行に含まれたかどうか分からないため。次に作り直すまで偽陽性として残る）
+     */
+    public synchronized void remove(long followerId, long followingId) {
+        if (filter != null) {
+            filter.remove(followerId, followingId);
+        }
+    }
+
+    @Async("feedTaskExecutor")
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        rebuild();
+    }
+
+    /**
+     * follows を全件読み込んでフィルタを作り直す
+     * 作成中のフォローは作成中のフィルタにも加えるため、読み込みと同時に行われたフォローも含まれる
+     */
+    @Scheduled(cron = "${follow.bloom.rebuild-cron:0 30 5 * * *}")
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        Long edgeCount = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM follows", Long.class);
+        long expected = Math.max(MIN_EXPECTED_EDGES, (long) ((edgeCount != null ? edgeCount : 0) * headroom));
+        CountingBloomFilter next = new CountingBloomFilter(expected, falsePositiveRate);
+        synchronized (this) {
+            if (building != null) {
+                return;
+            }
+            building = next;
+        }
+
+        try {
+            long startedAt = System.currentTimeMillis();
+            // PostgreSQL はトランザクション内（autocommit なし）でのみ fetchSize 件ずつカーソルで読む
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement("SELECT follower_id, following_id FROM follows");
+                statement.setFetchSize(fetchSize);
+                return statement;
+            }, rs -> next.add(rs.getLong(1), rs.getLong(2))));
+
+            synchronized (this) {
+                filter = next;
+                expectedEdges = expected;
+                counters = new Counters();
+                building = null;
+            }
+            logger.info("Built follow bloom filter in {} ms: {} edges expected, {} bytes",
+                System.currentTimeMillis() - startedAt, expected, next.sizeInBytes());
+        } catch (RuntimeException e) {
+            // 前回のフィルタ（作成前の場合はリポジトリ）を使い続ける
+            logger.warn("Failed to build follow bloom filter", e);
+            synchronized (this) {
+                building = null;
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${follow.bloom.stats-log-ms:600000}")
+    public void logStats() {
+        FilterStats stats = getStats();
+        if (stats.definiteNegatives() + stats.possiblePositives() > 0) {
+            logger.info("Follow bloom filter: {} definite negatives, {} possible positives, {} false positives (rate {})",
+                stats.definiteNegatives(), stats.possiblePositives(), stats.falsePositives(),
+                String.format("%.4f", stats.falsePositiveRate()));
+        }
+    }
+
+    /**
+     * 現在のフィルタの判定結果（作り直すと0に戻る）
+     */
+    public FilterStats getStats() {
+        CountingBloomFilter current = filter;
+        Counters currentCounters = counters;
+        long definiteNegatives = currentCounters.definiteNegatives.sum();
+        long falsePositives = currentCounters.falsePositives.sum();
+        long negatives = definiteNegatives + falsePositives;
+        return new FilterStats(
+            expectedEdges,
+            current != null ? current.sizeInBytes() : 0,
+            definiteNegatives,
+            currentCounters.possiblePositives.sum(),
+            falsePositives,
+            negatives > 0 ? (double) falsePositives / negatives : 0
+        );
+    }
+
+    /**
+     * @param expectedEdges フィルタ作成時に想定したフォロー関係の数
+     * @param sizeInBytes フィルタのバイト数
+     * @param definiteNegatives フィルタだけで「フォローしていない」と判定した数
+     * @param possiblePositives フィルタに含まれる可能性があり、リポジトリで確認した数
+     * @param falsePositives リポジトリで確認した結果、フォローしていなかった数
+     * @param falsePositiveRate フォローしていない組のうち、フィルタで除外できなかった割合
+     */
+    public record FilterStats(long expectedEdges, long sizeInBytes, long definiteNegatives,
+                              long possiblePositives, long falsePositives, double falsePositiveRate) {
+    }
+
+    private static final class Counters {
+
+        final LongAdder definiteNegatives = new LongAdder();
+        final LongAdder possiblePositives = new LongAdder();
+        final LongAdder falsePositives = new LongAdder();
+
+        void record(int checked, int found) {
+            possiblePositives.add(checked);
+            falsePositives.add(checked - found);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.ippi.service;
+
+import com.example.ippi.dto.FollowEntry;
+import com.example.ippi.dto.FollowUserDTO;
+import com.example.ippi.repository.FollowRepository;
+import com.example.ippi.util.LongHashSet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * フォロワー・フォロー中一覧の組み立て
+ *
+ * 閲覧ユーザーのフォロー状態はユーザーごとに問い合わせず、SocialGraphService で判定する
+ * （読み込み前はブルームフィルタで除外できなかったユーザーだけを1回の所属判定クエリで取得する）
+ */
+@Component
+public class FollowListAssembler {
+
+    @Autowired
+    private FollowRepository followRepository;
+
+    @Autowired
+    private SocialGraphService socialGraphService;
+
+    @Autowired
+    private FollowFilterService followFilterService;
+
+    /**
+     * @param entries 一覧に表示するユーザー（順序はそのまま）
+     * @param viewerId 閲覧しているユーザーのID（未ログインの場合はnull）
+     */
+    public List<FollowUserDTO> assemble(List<FollowEntry> entries, Long viewerId) {
+        List<Long> userIds = entries.stream().map(FollowEntry::getUserId).toList();
+        LongHashSet followingIds = new LongHashSet(userIds.size());
+        if (viewerId != null && !userIds.isEmpty()) {
+            if (socialGraphService.isReady()) {
+                for (Long userId : userIds) {
+                    if (socialGraphService.isFollowing(viewerId, userId)) {
+                        followingIds.add(userId);
+                    }
+                }
+            } else {
+                followingIds = followFilterService.findFollowingAmong(viewerId, userIds,
+                    candidateIds -> followRepository.findFollowingIdSetAmong(viewerId, candidateIds));
+            }
+        }
+
+        List<FollowUserDTO> result = new ArrayList<>(entries.size());
+        for (FollowEntry entry : entries) {
+            result.add(new FollowUserDTO(
+                entry.getUserId(),
+                entry.getName(),
+                entry.getCustomId(),
+                entry.getProfileImageUrl(),
+                entry.getDescription(),
+                followingIds.contains(entry.getUserId())
+            ));
+        }
+        return result;
+    }
+}
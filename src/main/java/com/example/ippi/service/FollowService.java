@@ -0,0 +1,178 @@
+package com.example.ippi.service;
+
+import com.example.ippi.dto.FollowStatsDTO;
+import com.example.ippi.entity.FollowCount;
+import com.example.ippi.repository.FollowCountRepository;
+import com.example.ippi.repository.FollowRepository;
+import com.example.ippi.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * フォロー・フォロー解除サービス
+ *
+ * follows の追加・削除と follow_counts の加算を同じトランザクションで行い、
+ * フォロワー数・フォロー中の数は follow_counts の主キー読み取りで返す
+ */
+@Service
+public class FollowService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FollowService.class);
+
+    @Autowired
+    private FollowRepository followRepository;
+
+    @Autowired
+    private FollowCountRepository followCountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private SocialGraphService socialGraphService;
+
+    @Autowired
+    private FollowFilterService followFilterService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${follow.counts.reconcile-batch-size:1000}")
+    private int reconcileBatchSize;
+
+    /**
+     * フォローする
+     *
+     * @return フォローした場合はtrue、既にフォローしていた場合はfalse
+     */
+    @Transactional
+    public boolean follow(Long followerId, Long followingId) {
+        if (followRepository.insertFollow(followerId, followingId, System.currentTimeMillis()) == 0) {
+            return false;
+        }
+        addCounts(followerId, followingId, 1);
+        afterCommit(() -> {
+            socialGraphService.syncEdge(followerId, followingId);
+            followFilterService.add(followerId, followingId);
+        });
+        return true;
+    }
+
+    /**
+     * フォロー解除
+     *
+     * @return 解除した場合はtrue、フォローしていなかった場合はfalse
+     */
+    @Transactional
+    public boolean unfollow(Long followerId, Long followingId) {
+        if (followRepository.deleteFollow(followerId, followingId) == 0) {
+            return false;
+        }
+        addCounts(followerId, followingId, -1);
+        afterCommit(() -> {
+            socialGraphService.syncEdge(followerId, followingId);
+            followFilterService.remove(followerId, followingId);
+        });
+        return true;
+    }
+
+    // フォロー関係のインデックスはコミットされた変更だけを反映する
+    private static void afterCommit(Runnable action) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    // 相互にフォローし合う操作が同時に行われてもデッドロックしないよう、ユーザーIDの小さい順に行を更新する
+    private void addCounts(Long followerId, Long followingId, long delta) {
+        if (followingId < followerId) {
+            followCountRepository.addCounts(followingId, delta, 0);
+            followCountRepository.addCounts(followerId, 0, delta);
+        } else {
+            followCountRepository.addCounts(followerId, 0, delta);
+            followCountRepository.addCounts(followingId, delta, 0);
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public long getFollowersCount(Long userId) {
+        return followCountRepository.findById(userId).map(FollowCount::getFollowersCount).orElse(0L);
+    }
+
+    /**
+     * フォロー統計
+     *
+     * @param viewerId 閲覧しているユーザーのID（未ログインの場合はnull）
+     */
+    @Transactional(readOnly = true)
+    public FollowStatsDTO getStats(Long userId, Long viewerId) {
+        FollowCount counts = followCountRepository.findById(userId).orElseGet(FollowCount::new);
+        boolean isFollowing = viewerId != null && isFollowing(viewerId, userId);
+        return new FollowStatsDTO(counts.getFollowersCount(), counts.getFollowingCount(), isFollowing);
+    }
+
+    /**
+     * フォローしているか
+     * フォロー関係のインデックスの読み込み前は、ブルームフィルタに含まれる可能性がある場合だけ follows を読む
+     */
+    public boolean isFollowing(Long followerId, Long followingId) {
+        if (socialGraphService.isReady()) {
+            return socialGraphService.isFollowing(followerId, followingId);
+        }
+        return followFilterService.isFollowing(followerId, followingId,
+            () -> followRepository.existsByFollowerIdAndFollowingId(followerId, followingId));
+    }
+
+    // follow_counts の追加前からのユーザーのため、起動時にも一度作成・修正する
+    @Async("feedTaskExecutor")
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileOnStartup() {
+        reconcileCounts();
+    }
+
+    /**
+     * フォロワー数・フォロー中の数のずれを修正
+     * ユーザーID範囲ごとに follows の件数と突き合わせ、ずれている行だけ更新する
+     *
+     * 範囲の行を先にロックしてから数えるため、数えた後にコミットされたフォロー・フォロー解除の加算を上書きしない
+     * （ロック取得前にコミットされたものは数に含まれ、取得後のものはロックの解放を待ってから加算される）
+     */
+    @Scheduled(cron = "${follow.counts.reconcile-cron:0 0 5 * * *}")
+    public void reconcileCounts() {
+        Long maxId = userRepository.findMaxId();
+        if (maxId == null) {
+            return;
+        }
+
+        long repaired = 0;
+        for (long afterId = 0; afterId < maxId; afterId += reconcileBatchSize) {
+            long from = afterId;
+            long to = afterId + reconcileBatchSize;
+            // 行の作成は先にコミットし、突き合わせのトランザクションではロックをユーザーIDの小さい順にだけ取得する
+            repaired += followCountRepository.insertMissingCounts(from, to);
+            Integer updated = transactionTemplate.execute(status -> {
+                followCountRepository.lockCounts(from, to);
+                return followCountRepository.reconcileCounts(from, to);
+            });
+            repaired += updated != null ? updated : 0;
+        }
+
+        if (repaired > 0) {
+            logger.info("Repaired follow counts of {} users", repaired);
+        }
+    }
+}
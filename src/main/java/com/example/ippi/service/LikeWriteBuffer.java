@@ -0,0 +1,240 @@
+package com.example.ippi.service;
+
+import com.example.ippi.repository.FeedLikeRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * いいね・いいね解除の書き込みバッファ
+ *
+ * リクエストごとに書き込まず、(アクティビティ, ユーザー) ごとに最後の操作だけを保持して
+ * 定期的にアクティビティ単位でまとめて書き込む。連打されても書き込みは1回になる。
+ * 書き込み前の状態は likeCountOf / pendingState でレスポンスやフィード表示に反映する。
+ * 操作ごとに保存済みの状態（feed_likes に行があるか）も保持し、いいね数にはそれとの差だけを加える。
+ * 書き込むたびにユーザーごとの保存済みの状態のバージョン（changeVersionOf）を進め、いいね状態のキャッシュの無効化に使う
+ */
+@Component
+public class LikeWriteBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LikeWriteBuffer.class);
+
+    // 保存済みの状態を読む間に書き込みが終わった場合に読み直す回数
+    private static final int STORED_STATE_ATTEMPTS = 3;
+
+    // 保存済みの状態のバージョンを分けるユーザーの区分数（2の累乗）
+    private static final int VERSION_STRIPES = 4096;
+
+    @Autowired
+    private FeedEngagementService feedEngagementService;
+
+    @Autowired
+    private EngagementCounterService engagementCounterService;
+
+    @Autowired
+    private FeedLikeRepository feedLikeRepository;
+
+    // アクティビティID -> (ユーザーID -> 操作)
+    // 内側の Map は compute の中でのみ読み書きする
+    private final Map<Long, Map<Long, Change>> pending = new ConcurrentHashMap<>();
+
+    // 書き込み中の操作（アクティビティID -> (ユーザーID -> 操作)）。内側の Map は変更しない
+    private final Map<Long, Map<Long, Change>> writing = new ConcurrentHashMap<>();
+
+    // 書き込みが終わるたびに増やす（保存済みの状態を読んでいる間に書き込みが終わったかの判定用）
+    private final AtomicLong completedWrites = new AtomicLong();
+
+    // ユーザーIDのハッシュで区分した保存済みの状態のバージョン（同じ区分の他のユーザーの書き込みでも進む）
+    private final AtomicLongArray storedVersions = new AtomicLongArray(VERSION_STRIPES);
+
+    public void like(Long activityId, Long userId) {
+        enqueue(activityId, userId, true);
+    }
+
+    public void unlike(Long activityId, Long userId) {
+        enqueue(activityId, userId, false);
+    }
+
+    private void enqueue(Long activityId, Long userId, boolean liked) {
+        // 書き込み待ち・書き込み中の操作があれば、その保存済みの状態を引き継ぐ（連打では feed_likes を読まない）
+        if (tryEnqueue(activityId, userId, liked, null, false)) {
+            return;
+        }
+        for (int attempt = 1; ; attempt++) {
+            long writesBefore = completedWrites.get();
+            boolean stored = feedLikeRepository.isLikedBy(activityId, userId);
+            // 読んだ後に書き込みが終わった場合は、保存済みの状態が古い可能性があるため読み直す
+            boolean stale = completedWrites.get() != writesBefore && attempt < STORED_STATE_ATTEMPTS;
+            if (!stale && tryEnqueue(activityId, userId, liked, stored, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 操作を書き込み待ちにする
+     *
+     * @param stored feed_likes から読んだ保存済みの状態（読んでいない場合はnull）
+     * @param force 書き込み待ち・書き込み中の操作がなければ stored を使う
+     * @return 書き込み待ちにできた場合は true（保存済みの状態が分からない場合は false）
+     */
+    private boolean tryEnqueue(Long activityId, Long userId, boolean liked, Boolean stored, boolean force) {
+        boolean[] enqueued = new boolean[1];
+        pending.compute(activityId, (id, changes) -> {
+            Change previous = changes != null ? changes.get(userId) : null;
+            Boolean storedState = previous != null ? Boolean.valueOf(previous.stored()) : writingState(activityId, userId);
+            if (storedState == null) {
+                if (!force || stored == null) {
+                    return changes;
+                }
+                storedState = stored;
+            }
+            Map<Long, Change> result = changes != null ? changes : new HashMap<>();
+            result.put(userId, new Change(liked, storedState));
+            enqueued[0] = true;
+            return result;
+        });
+        return enqueued[0];
+    }
+
+    // 書き込み中の操作（書き込み後に保存済みの状態になる）
+    private Boolean writingState(Long activityId, Long userId) {
+        Map<Long, Change> changes = writing.get(activityId);
+        Change change = changes != null ? changes.get(userId) : null;
+        return change != null ? change.liked() : null;
+    }
+
+    /**
+     * 書き込み待ち・カウンタ未反映の分を含めたいいね数（楽観的な値）
+     * 書き込み待ち・書き込み中の操作は保存済みの状態と異なるものだけを数える（いいね済みのユーザーの再いいねは0）
+     *
+     * @param persistedCount activities.like_count の値
+     */
+    public long likeCountOf(Long activityId, long persistedCount) {
+        long[] delta = new long[1];
+        pending.computeIfPresent(activityId, (id, changes) -> {
+            for (Change change : changes.values()) {
+                delta[0] += change.delta();
+            }
+            return changes;
+        });
+        // 書き込み中の分も、書き込みが終わりカウンタに加算されるまでは含まれていない
+        // （書き込み中に行われた操作は書き込み後の状態からの差のため、両方を足す）
+        Map<Long, Change> inFlight = writing.get(activityId);
+        if (inFlight != null) {
+            for (Change change : inFlight.values()) {
+                delta[0] += change.delta();
+            }
+        }
+        return Math.max(0, engagementCounterService.likeCount(activityId, persistedCount) + delta[0]);
+    }
+
+    /**
+     * 書き込み待ちのいいね状態
+     *
+     * @return いいね・いいね解除が書き込み待ちの場合はその状態、ない場合はnull
+     */
+    public Boolean pendingState(Long activityId, Long userId) {
+        Boolean[] state = new Boolean[1];
+        pending.computeIfPresent(activityId, (id, changes) -> {
+            Change change = changes.get(userId);
+            state[0] = change != null ? change.liked() : null;
+            return changes;
+        });
+        return state[0];
+    }
+
+    /**
+     * ユーザーの保存済みのいいね状態のバージョン
+     * 値を読んでから feed_likes を読んだ場合、値が変わっていなければ読んだ結果はまだ最新（書き込み待ちの分を除く）
+     */
+    public long changeVersionOf(long userId) {
+        return storedVersions.get(stripeOf(userId));
+    }
+
+    private static int stripeOf(long userId) {
+        return Long.hashCode(userId * 0x9E3779B97F4A7C15L) & (VERSION_STRIPES - 1);
+    }
+
+    /**
+     * 書き込み待ちのいいねをアクティビティ単位でまとめて書き込む
+     */
+    @Scheduled(fixedDelayString = "${feed.likes.flush-ms:500}")
+    public synchronized void flush() {
+        for (Long activityId : new ArrayList<>(pending.keySet())) {
+            // 取り出しと書き込み中への登録を enqueue と同じロックの中で行う
+            Map<Long, Change> taken = new HashMap<>();
+            pending.computeIfPresent(activityId, (id, changes) -> {
+                taken.putAll(changes);
+                writing.put(activityId, Map.copyOf(changes));
+                return null;
+            });
+            if (taken.isEmpty()) {
+                continue;
+            }
+
+            List<Long> likedUserIds = new ArrayList<>();
+            List<Long> unlikedUserIds = new ArrayList<>();
+            taken.forEach((userId, change) -> (change.liked() ? likedUserIds : unlikedUserIds).add(userId));
+
+            try {
+                feedEngagementService.applyLikeChanges(activityId, likedUserIds, unlikedUserIds);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to write likes of activity {}, retrying on next flush", activityId, e);
+                restore(activityId, taken);
+            } finally {
+                completedWrites.incrementAndGet();
+                writing.remove(activityId);
+                // この書き込みの完了前に feed_likes を読んだキャッシュを無効にする
+                for (Long userId : taken.keySet()) {
+                    storedVersions.incrementAndGet(stripeOf(userId));
+                }
+            }
+        }
+    }
+
+    // 書き込みに失敗した変更を戻す（その間に行われた操作のほうを優先）
+    // 書き込み中に行われた操作は書き込みが成功する前提の保存済み状態を持つため、元の保存済み状態に戻す
+    private void restore(Long activityId, Map<Long, Change> changes) {
+        pending.compute(activityId, (id, current) -> {
+            Map<Long, Change> result = new HashMap<>(changes);
+            if (current != null) {
+                current.forEach((userId, change) -> {
+                    Change failed = changes.get(userId);
+                    result.put(userId, failed != null ? new Change(change.liked(), failed.stored()) : change);
+                });
+            }
+            return result;
+        });
+    }
+
+    @PreDestroy
+    void flushOnShutdown() {
+        flush();
+    }
+
+    /**
+     * 書き込み待ちの操作
+     *
+     * @param liked 操作後にいいねしているか
+     * @param stored 保存済み（最初の操作の時点）でいいねしていたか
+     */
+    private record Change(boolean liked, boolean stored) {
+
+        // いいね数への影響
+        long delta() {
+            return (liked ? 1 : 0) - (stored ? 1 : 0);
+        }
+    }
+}
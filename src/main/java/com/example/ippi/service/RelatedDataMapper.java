@@ -0,0 +1,32 @@
+package com.example.ippi.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * アクティビティの relatedData（jsonb）と型付きのデータ（WorkCompletedData など）の変換
+ */
+@Component
+public class RelatedDataMapper {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    public String write(Object data) {
+        try {
+            return objectMapper.writeValueAsString(data);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize related data", e);
+        }
+    }
+
+    public <T> T read(String relatedData, Class<T> type) {
+        try {
+            return objectMapper.readValue(relatedData, type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to deserialize related data", e);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.ippi.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * フォロー関係のインメモリインデックス
+ *
+ * ユーザーごとにフォロー中・フォロワーのユーザーIDを昇順の long[] で保持し、
+ * フォロー判定は二分探索、フォロワーの走査は配列をそのまま読むことで follows へのクエリを省く。
+ * 配列は変更せず、フォロー・フォロー解除時は新しい配列に差し替える（読み取りはロック不要）。
+ * 起動時の読み込みが終わるまで（isReady が false の間）は、呼び出し側がリポジトリで代替する。
+ * フォロー・フォロー解除のコミット後は follows から読み直した状態を反映するため、コミット後の処理の順序が
+ * 前後しても最後に反映した状態はコミット済みの状態と一致する。定期的に全体も読み直す
+ */
+@Service
+public class SocialGraphService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SocialGraphService.class);
+
+    private static final long[] EMPTY = new long[0];
+
+    // 配列1つあたりのオーバーヘッド（ヘッダ）と、Map の1エントリあたりのオーバーヘッド（ノード・キーの Long・テーブルの参照）の概算
+    private static final long ARRAY_HEADER_BYTES = 16;
+    private static final long MAP_ENTRY_BYTES = 56;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${follow.graph.enabled:true}")
+    private boolean enabled;
+
+    // 読み込み時に1回の往復で取得する行数
+    @Value("${follow.graph.fetch-size:10000}")
+    private int fetchSize;
+
+    // ユーザーID -> フォロー中のユーザーID（昇順）
+    private volatile Map<Long, long[]> following = new ConcurrentHashMap<>();
+    // ユーザーID -> フォロワーのユーザーID（昇順）
+    private volatile Map<Long, long[]> followers = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+
+    // 読み込み中に行われたフォロー・フォロー解除（読み込み後に適用する）。this で同期する
+    private boolean loading;
+    private final List<EdgeChange> pendingChanges = new ArrayList<>();
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * followerId が followingId をフォローしているか（O(log n)）
+     */
+    public boolean isFollowing(long followerId, long followingId) {
+        return Arrays.binarySearch(following.getOrDefault(followerId, EMPTY), followingId) >= 0;
+    }
+
+    /**
+     * フォロワーのユーザーID（昇順）
+     * 返す配列は共有しているため変更しないこと
+     */
+    public long[] followersOf(long userId) {
+        return followers.getOrDefault(userId, EMPTY);
+    }
+
+    /**
+     * フォロー中のユーザーID（昇順）
+     * 返す配列は共有しているため変更しないこと
+     */
+    public long[] followingOf(long userId) {
+        return following.getOrDefault(userId, EMPTY);
+    }
+
+    /**
+     * フォロー関係を follows のコミット済みの状態に合わせる（フォロー・フォロー解除のコミット後に呼ぶ）
+     *
+     * 複数のリクエストのコミット後の処理は、コミットと異なる順序で届くことがある。
+     * 操作（追加・削除）ではなく、このモニタの中で読み直した状態を反映するため、
+     * 最後に反映した状態は最後のコミットを含む
+     */
+    public synchronized void syncEdge(long followerId, long followingId) {
+        if (!enabled || (!ready && !loading)) {
+            return;
+        }
+        Boolean exists = jdbcTemplate.queryForObject(
+            "SELECT EXISTS (SELECT 1 FROM follows WHERE follower_id = ? AND following_id = ?)",
+            Boolean.class, followerId, followingId);
+        apply(new EdgeChange(followerId, followingId, Boolean.TRUE.equals(exists)));
+    }
+
+    private void apply(EdgeChange change) {
+        if (loading) {
+            pendingChanges.add(change);
+        }
+        if (!ready) {
+            return;
+        }
+        if (change.added()) {
+            following.compute(change.followerId(), (id, ids) -> insert(ids, change.followingId()));
+            followers.compute(change.followingId(), (id, ids) -> insert(ids, change.followerId()));
+        } else {
+            following.computeIfPresent(change.followerId(), (id, ids) -> remove(ids, change.followingId()));
+            followers.computeIfPresent(change.followingId(), (id, ids) -> remove(ids, change.followerId()));
+        }
+    }
+
+    private static long[] insert(long[] ids, long value) {
+        if (ids == null) {
+            return new long[] {value};
+        }
+        int index = Arrays.binarySearch(ids, value);
+        if (index >= 0) {
+            return ids;
+        }
+        int insertAt = -index - 1;
+        long[] result = new long[ids.length + 1];
+        System.arraycopy(ids, 0, result, 0, insertAt);
+        result[insertAt] = value;
+        System.arraycopy(ids, insertAt, result, insertAt + 1, ids.length - insertAt);
+        return result;
+    }
+
+    // 空になった場合はエントリごと削除（null を返す）
+    private static long[] remove(long[] ids, long value) {
+        int index = Arrays.binarySearch(ids, value);
+        if (index < 0) {
+            return ids;
+        }
+        if (ids.length == 1) {
+            return null;
+        }
+        long[] result = new long[ids.length - 1];
+        System.arraycopy(ids, 0, result, 0, index);
+        System.arraycopy(ids, index + 1, result, index, ids.length - index - 1);
+        return result;
+    }
+
+    /**
+     * follows を定期的に読み直して差し替える（反映できなかった変更があっても一致させる）
+     * 読み直している間も、以前の内容で判定・走査できる
+     */
+    @Scheduled(cron = "${follow.graph.resync-cron:0 30 5 * * *}")
+    public void resync() {
+        // 同じクラスからの呼び出しのため、load は非同期にならずこのスレッドで実行される
+        load();
+    }
+
+    /**
+     * follows を全件読み込む
+     * 行は fetchSize 件ずつ順に読み、ユーザーごとの配列を作りながら捨てるため、結果セット全体は保持しない
+     */
+    @Async("feedTaskExecutor")
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        synchronized (this) {
+            if (!enabled || loading) {
+                return;
+            }
+            loading = true;
+            pendingChanges.clear();
+        }
+
+        try {
+            long startedAt = System.currentTimeMillis();
+            Map<Long, long[]> loadedFollowing = loadAdjacency("follower_id", "following_id");
+            Map<Long, long[]> loadedFollowers = loadAdjacency("following_id", "follower_id");
+
+            synchronized (this) {
+                following = loadedFollowing;
+                followers = loadedFollowers;
+                ready = true;
+                // 読み込み中の変更を順に適用（追加・削除とも、既に反映済みでも結果は同じ）
+                loading = false;
+                for (EdgeChange change : pendingChanges) {
+                    apply(change);
+                }
+                pendingChanges.clear();
+            }
+
+            GraphStats stats = getStats();
+            logger.info("Loaded social graph in {} ms: {} users, {} edges, {} bytes ({} bytes/edge)",
+                System.currentTimeMillis() - startedAt, stats.users(), stats.edges(), stats.estimatedBytes(),
+                String.format("%.1f", stats.bytesPerEdge()));
+        } catch (RuntimeException e) {
+            logger.warn("Failed to load social graph, falling back to database queries", e);
+            synchronized (this) {
+                loading = false;
+                pendingChanges.clear();
+            }
+        }
+    }
+
+    private Map<Long, long[]> loadAdjacency(String keyColumn, String valueColumn) {
+        Map<Long, long[]> adjacency = new ConcurrentHashMap<>();
+        AdjacencyBuilder builder = new AdjacencyBuilder(adjacency);
+        // PostgreSQL はトランザクション内（autocommit なし）でのみ fetchSize 件ずつカーソルで読む
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                "SELECT " + keyColumn + ", " + valueColumn + " FROM follows ORDER BY " + keyColumn + ", " + valueColumn);
+            statement.setFetchSize(fetchSize);
+            return statement;
+        }, builder));
+        builder.finish();
+        return adjacency;
+    }
+
+    /**
+     * メモリ使用量の概算
+     * 各辺はフォロー中・フォロワーの両方に1回ずつ含まれる
+     */
+    public GraphStats getStats() {
+        Map<Long, long[]> currentFollowing = following;
+        Map<Long, long[]> currentFollowers = followers;
+
+        long edges = 0;
+        long bytes = 0;
+        for (long[] ids : currentFollowing.values()) {
+            edges += ids.length;
+            bytes += MAP_ENTRY_BYTES + ARRAY_HEADER_BYTES + 8L * ids.length;
+        }
+        for (long[] ids : currentFollowers.values()) {
+            bytes += MAP_ENTRY_BYTES + ARRAY_HEADER_BYTES + 8L * ids.length;
+        }
+        long users = Math.max(currentFollowing.size(), currentFollowers.size());
+        return new GraphStats(users, edges, bytes, edges > 0 ? (double) bytes / edges : 0);
+    }
+
+    /**
+     * @param users フォロー中またはフォロワーのいるユーザー数（多い方）
+     * @param edges フォロー関係の数
+     * @param estimatedBytes 配列と Map エントリの合計バイト数の概算
+     * @param bytesPerEdge フォロー関係1件あたりのバイト数
+     */
+    public record GraphStats(long users, long edges, long estimatedBytes, double bytesPerEdge) {
+    }
+
+    private record EdgeChange(long followerId, long followingId, boolean added) {
+    }
+
+    /**
+     * (キー, 値) の昇順に並んだ行から、キーごとの配列を作る
+     */
+    private static final class AdjacencyBuilder implements RowCallbackHandler {
+
+        private final Map<Long, long[]> adjacency;
+        private long[] buffer = new long[64];
+        private int size;
+        private long currentKey;
+
+        AdjacencyBuilder(Map<Long, long[]> adjacency) {
+            this.adjacency = adjacency;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            long key = rs.getLong(1);
+            long value = rs.getLong(2);
+            if (size > 0 && key != currentKey) {
+                finish();
+            }
+            currentKey = key;
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, size * 2);
+            }
+            buffer[size++] = value;
+        }
+
+        void finish() {
+            if (size > 0) {
+                adjacency.put(currentKey, Arrays.copyOf(buffer, size));
+                size = 0;
+            }
+        }
+    }
+}
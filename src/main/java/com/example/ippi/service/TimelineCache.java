@@ -0,0 +1,404 @@
+package com.example.ippi.service;
+
+import com.example.ippi.util.FeedCursor;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ホームタイムラインのインメモリキャッシュ
+ *
+ * アクティブなユーザーごとに、最近のアクティビティIDと作成日時を固定長の long[] リングで保持する。
+ * ユーザー数の上限を超えた場合は最も使われていないユーザーから破棄する（LRU）。
+ * データベースから読み込む間に届いた追加は beginLoad で登録した読み込みに記録し、load で作成したリングに反映する
+ */
+@Component
+public class TimelineCache {
+
+    @Value("${feed.timeline.cache.max-users:10000}")
+    private int maxUsers;
+
+    @Value("${feed.timeline.cache.ring-size:200}")
+    private int ringSize;
+
+    @Value("${feed.timeline.cache.ttl-ms:600000}")
+    private long ttlMillis;
+
+    private Map<Long, Ring> rings;
+
+    // 所有者ID -> 読み込み中のタイムライン（差し替えのみで、リストの中身は変更しない）
+    private final Map<Long, List<Loading>> loadings = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        rings = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Ring> eldest) {
+                return size() > maxUsers;
+            }
+        });
+    }
+
+    public int getRingSize() {
+        return ringSize;
+    }
+
+    /**
+     * キャッシュからタイムラインのアクティビティIDを取得
+     *
+     * @return ページ分のアクティビティ。キャッシュにない、またはリングの範囲外の場合はnull
+     */
+    public Slice page(Long ownerId, FeedCursor cursor, int page, int size) {
+        Ring ring = activeRing(ownerId);
+        return ring != null ? ring.page(cursor, page, size) : null;
+    }
+
+    /**
+     * キャッシュからカーソル位置より新しいアクティビティIDを新しい順に取得
+     *
+     * @return 最大 limit 件のアクティビティ。キャッシュにない、または件数が確定できない場合はnull
+     */
+    public Slice newer(Long ownerId, FeedCursor cursor, int limit) {
+        Ring ring = activeRing(ownerId);
+        return ring != null ? ring.newer(cursor, limit) : null;
+    }
+
+    /**
+     * キャッシュからカーソル位置より新しいアクティビティ数を取得（limit 件で打ち切り）
+     *
+     * @return 件数。キャッシュにない、または件数が確定できない場合は-1
+     */
+    public int countNewer(Long ownerId, FeedCursor cursor, int limit) {
+        Ring ring = activeRing(ownerId);
+        return ring != null ? ring.countNewer(cursor, limit) : -1;
+    }
+
+    private Ring activeRing(Long ownerId) {
+        Ring ring = rings.get(ownerId);
+        if (ring != null && ring.isExpired(ttlMillis)) {
+            rings.remove(ownerId);
+            return null;
+        }
+        return ring;
+    }
+
+    /**
+     * データベースからの読み込みを開始する（読み込む前に呼ぶ）
+     * これ以降に届いた追加は load で作成するリングに反映され、読み込んだ結果に含まれていなくても失われない
+     *
+     * @param pulledAuthorIds フォロー中のプル配信対象ユーザー
+     * @return load または cancelLoad に渡す読み込み
+     */
+    public Loading beginLoad(Long ownerId, List<Long> pulledAuthorIds) {
+        long[] pulled = pulledAuthorIds.stream().mapToLong(Long::longValue).sorted().toArray();
+        Loading loading = new Loading(ownerId, pulled);
+        loadings.compute(ownerId, (id, current) -> {
+            List<Loading> result = current != null ? new ArrayList<>(current) : new ArrayList<>();
+            result.add(loading);
+            return result;
+        });
+        return loading;
+    }
+
+    /**
+     * データベースから読み込んだ先頭部分でリングを作成し、読み込み中に届いた追加を反映する
+     * 読み込み中に evict / clear された場合は作成しない（読み込んだ内容が古い可能性があるため）
+     *
+     * @param activityIds 新しい順のアクティビティID
+     * @param createdAts activityIds に対応する作成日時
+     */
+    public void load(Loading loading, long[] activityIds, long[] createdAts) {
+        Ring ring = new Ring(ringSize, activityIds, createdAts, loading.pulledAuthorIds);
+        List<long[]> offered;
+        boolean installed;
+        // リングの登録と記録の締め切りを offer の記録と同じロックの中で行う
+        // （締め切り後の offer は登録済みのリングに直接追加する）
+        synchronized (loading) {
+            installed = !loading.cancelled;
+            if (installed) {
+                rings.put(loading.ownerId, ring);
+            }
+            offered = loading.close();
+        }
+        unregister(loading);
+        if (installed) {
+            for (long[] offer : offered) {
+                ring.push(offer[0], offer[1]);
+            }
+        }
+    }
+
+    /**
+     * 読み込みを中止する（読み込みに失敗した場合）
+     */
+    public void cancelLoad(Loading loading) {
+        synchronized (loading) {
+            loading.cancelled = true;
+            loading.close();
+        }
+        unregister(loading);
+    }
+
+    private void unregister(Loading loading) {
+        loadings.computeIfPresent(loading.ownerId, (id, current) -> {
+            List<Loading> result = new ArrayList<>(current);
+            result.remove(loading);
+            return result.isEmpty() ? null : result;
+        });
+    }
+
+    /**
+     * 新しいアクティビティをキャッシュ済みのタイムラインに追加（未キャッシュのユーザーは読み込み中の場合のみ記録）
+     */
+    public void offer(Long ownerId, long activityId, long createdAt) {
+        // 読み込み中の記録を先に行う（記録が締め切られていれば、リングは登録済み）
+        for (Loading loading : loadings.getOrDefault(ownerId, List.of())) {
+            loading.record(activityId, createdAt);
+        }
+        Ring ring = rings.get(ownerId);
+        if (ring != null) {
+            ring.push(activityId, createdAt);
+        }
+    }
+
+    /**
+     * プル配信対象ユーザーのアクティビティを、そのユーザーをフォローしているキャッシュ済みタイムラインに追加
+     */
+    public void offerToPullFollowers(long authorId, long activityId, long createdAt) {
+        for (List<Loading> ownerLoadings : loadings.values()) {
+            for (Loading loading : ownerLoadings) {
+                if (loading.pullsFrom(authorId)) {
+                    loading.record(activityId, createdAt);
+                }
+            }
+        }
+        List<Ring> snapshot;
+        synchronized (rings) {
+            snapshot = new ArrayList<>(rings.values());
+        }
+        for (Ring ring : snapshot) {
+            if (ring.pullsFrom(authorId)) {
+                ring.push(activityId, createdAt);
+            }
+        }
+    }
+
+    public void evict(Long ownerId) {
+        for (Loading loading : loadings.getOrDefault(ownerId, List.of())) {
+            cancel(loading);
+        }
+        rings.remove(ownerId);
+    }
+
+    public void clear() {
+        for (List<Loading> ownerLoadings : loadings.values()) {
+            for (Loading loading : ownerLoadings) {
+                cancel(loading);
+            }
+        }
+        rings.clear();
+    }
+
+    // 読み込み中のものはリングを作成させない（load より後に呼ばれた場合は、呼び出し元が作成済みのリングを削除する）
+    private static void cancel(Loading loading) {
+        synchronized (loading) {
+            loading.cancelled = true;
+        }
+    }
+
+    /**
+     * データベースから読み込み中のタイムライン
+     * 読み込み中に届いた追加を記録する（this で同期する）
+     */
+    public static final class Loading {
+        private final Long ownerId;
+        private final long[] pulledAuthorIds;
+        private List<long[]> offered = new ArrayList<>();
+        private boolean cancelled;
+
+        private Loading(Long ownerId, long[] pulledAuthorIds) {
+            this.ownerId = ownerId;
+            this.pulledAuthorIds = pulledAuthorIds;
+        }
+
+        boolean pullsFrom(long authorId) {
+            return Arrays.binarySearch(pulledAuthorIds, authorId) >= 0;
+        }
+
+        // 締め切り後は記録しない
+        synchronized void record(long activityId, long createdAt) {
+            if (offered != null) {
+                offered.add(new long[] {activityId, createdAt});
+            }
+        }
+
+        // 記録を締め切り、それまでの記録を返す
+        private List<long[]> close() {
+            List<long[]> result = offered != null ? offered : List.of();
+            offered = null;
+            return result;
+        }
+    }
+
+    /**
+     * キャッシュから取り出した新しい順のアクティビティID
+     * 作成日時の範囲はアクティビティ取得時のパーティション絞り込みに使う（空の場合は0）
+     */
+    public record Slice(long[] activityIds, long oldestCreatedAt, long newestCreatedAt) {
+
+        public boolean isEmpty() {
+            return activityIds.length == 0;
+        }
+    }
+
+    /**
+     * 固定長リング
+     * 論理インデックス0が最新で、(createdAt, activityId) の降順に並ぶ
+     */
+    static final class Ring {
+        private final long[] activityIds;
+        private final long[] createdAts;
+        private final long[] pulledAuthorIds;
+        private final long loadedAt;
+        private int head; // 次に書き込む物理位置
+        private int count;
+        private boolean complete; // タイムライン全体を保持しているか
+
+        Ring(int capacity, long[] ids, long[] times, long[] pulledAuthorIds) {
+            this.activityIds = new long[capacity];
+            this.createdAts = new long[capacity];
+            this.pulledAuthorIds = pulledAuthorIds;
+            this.loadedAt = System.currentTimeMillis();
+
+            int n = Math.min(ids.length, capacity);
+            // 古いものから書き込み、最新が head の直前に来るようにする
+            for (int i = n - 1; i >= 0; i--) {
+                activityIds[head] = ids[i];
+                createdAts[head] = times[i];
+                head = (head + 1) % capacity;
+            }
+            this.count = n;
+            this.complete = ids.length < capacity;
+        }
+
+        boolean isExpired(long ttlMillis) {
+            return System.currentTimeMillis() - loadedAt > ttlMillis;
+        }
+
+        boolean pullsFrom(long authorId) {
+            return Arrays.binarySearch(pulledAuthorIds, authorId) >= 0;
+        }
+
+        // 論理インデックスから物理位置へ
+        private int physical(int logical) {
+            int capacity = activityIds.length;
+            return ((head - 1 - logical) % capacity + capacity) % capacity;
+        }
+
+        private static boolean isOlder(long createdAt, long id, long thanCreatedAt, long thanId) {
+            return createdAt < thanCreatedAt || (createdAt == thanCreatedAt && id < thanId);
+        }
+
+        synchronized void push(long activityId, long createdAt) {
+            int capacity = activityIds.length;
+
+            // 挿入位置（自分より古い最初の要素）を探す。通常は先頭
+            int position = 0;
+            while (position < count) {
+                int p = physical(position);
+                if (activityIds[p] == activityId) {
+                    return; // 追加済み
+                }
+                if (isOlder(createdAts[p], activityIds[p], createdAt, activityId)) {
+                    break;
+                }
+                position++;
+            }
+
+            if (position == count && count == capacity) {
+                return; // リングより古いものは保持しない
+            }
+
+            // 先頭に1つ分の空きを作り、position より新しい要素を1つずつ前へずらす
+            if (count == capacity) {
+                complete = false; // 最古の要素が押し出される
+            } else {
+                count++;
+            }
+            head = (head + 1) % capacity;
+            for (int i = 0; i < position; i++) {
+                int to = physical(i);
+                int from = physical(i + 1);
+                activityIds[to] = activityIds[from];
+                createdAts[to] = createdAts[from];
+            }
+            int p = physical(position);
+            activityIds[p] = activityId;
+            createdAts[p] = createdAt;
+        }
+
+        // 先頭からカーソル位置までの件数。リングの末尾まで新しい要素が続き、その先が不明な場合は-1
+        synchronized int countNewer(FeedCursor cursor, int limit) {
+            int n = 0;
+            while (n < count && n < limit) {
+                int p = physical(n);
+                if (!isOlder(cursor.getCreatedAt(), cursor.getId(), createdAts[p], activityIds[p])) {
+                    return n;
+                }
+                n++;
+            }
+            return n < limit && !complete ? -1 : n;
+        }
+
+        synchronized Slice newer(FeedCursor cursor, int limit) {
+            int n = countNewer(cursor, limit);
+            return n < 0 ? null : slice(0, n);
+        }
+
+        synchronized Slice page(FeedCursor cursor, int page, int size) {
+            int from;
+            if (cursor != null) {
+                from = 0;
+                while (from < count) {
+                    int p = physical(from);
+                    if (isOlder(createdAts[p], activityIds[p], cursor.getCreatedAt(), cursor.getId())) {
+                        break;
+                    }
+                    from++;
+                }
+            } else {
+                from = page * size;
+            }
+
+            int to = from + size;
+            if (to > count) {
+                if (!complete) {
+                    return null; // リングの範囲外はデータベースから取得
+                }
+                to = count;
+            }
+
+            return slice(from, Math.max(from, to));
+        }
+
+        // 論理インデックス [from, to) を取り出す
+        private Slice slice(int from, int to) {
+            long[] ids = new long[to - from];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = activityIds[physical(from + i)];
+            }
+            if (ids.length == 0) {
+                return new Slice(ids, 0, 0);
+            }
+            return new Slice(ids, createdAts[physical(to - 1)], createdAts[physical(from)]);
+        }
+    }
+}
@@ -0,0 +1,613 @@
+package com.example.ippi.service;
+
+import com.example.ippi.dto.FeedItemDTO;
+import com.example.ippi.dto.RankedEntry;
+import com.example.ippi.dto.TimelineRef;
+import com.example.ippi.repository.ActivityRepository;
+import com.example.ippi.repository.FollowCountRepository;
+import com.example.ippi.repository.FollowRepository;
+import com.example.ippi.repository.TimelineEntryRepository;
+import com.example.ippi.repository.UserRepository;
+import com.example.ippi.util.ActivityTypeFilter;
+import com.example.ippi.util.FeedCursor;
+import com.example.ippi.util.FeedScore;
+import com.example.ippi.util.RankedCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * ホームタイムラインサービス（プッシュ／プル併用）
+ *
+ * アクティビティ作成時に投稿者本人とフォロワーのタイムラインへ書き込み（プッシュ）、
+ * フィード取得時は timeline_entries を owner_id で範囲読み取りする。
+ * フォロワー数が閾値以上のユーザーはフォロワーへの書き込みを行わず、
+ * 読み取り時に activities から取得してタイムラインとマージする（プル）
+ */
+@Service
+public class TimelineService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimelineService.class);
+
+    @Autowired
+    private TimelineEntryRepository timelineEntryRepository;
+
+    @Autowired
+    private FollowRepository followRepository;
+
+    @Autowired
+    private FollowCountRepository followCountRepository;
+
+    @Autowired
+    private SocialGraphService socialGraphService;
+
+    @Autowired
+    private ActivityRepository activityRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TimelineCache timelineCache;
+
+    @Autowired
+    private FeedStreamService feedStreamService;
+
+    @Value("${feed.timeline.fanout-batch-size:500}")
+    private int fanoutBatchSize;
+
+    @Value("${feed.timeline.backfill-size:200}")
+    private int backfillSize;
+
+    // 0以下の場合はプル配信を行わない
+    @Value("${feed.timeline.pull-threshold:5000}")
+    private long pullThreshold;
+
+    // 相互フォローの投稿者のアクティビティに加えるスコア（1.0 で反応10倍・12.5時間分に相当）
+    @Value("${feed.ranking.mutual-follow-bonus:0.5}")
+    private double mutualFollowBonus;
+
+    // ランキング表示でプル配信対象ユーザーから候補にする最近のアクティビティ数
+    @Value("${feed.ranking.pull-candidates:200}")
+    private int rankingPullCandidates;
+
+    @Value("${feed.ranking.initialize-batch-size:10000}")
+    private int initializeBatchSize;
+
+    // プル配信対象のユーザーID（定期的に再計算）
+    private volatile Set<Long> pullAuthorIds = Set.of();
+
+    /**
+     * アクティビティを投稿者本人とフォロワーのタイムラインに書き込む
+     * プル配信対象のユーザーは本人のタイムラインのみ
+     */
+    @Async("feedTaskExecutor")
+    public void fanOut(Long activityId, Long authorId, String activityType, Long createdAt) {
+        // キャッシュは既定の絞り込み条件のタイムラインだけを保持する
+        boolean cacheable = ActivityTypeFilter.HOME_DEFAULT.includes(activityType);
+
+        // ライブ配信の受信者（購読中のユーザーのみ）
+        List<Long> streamRecipients = new ArrayList<>();
+
+        // 作成時点ではいいね・コメントはない
+        double score = FeedScore.of(0, 0, createdAt);
+
+        long written = timelineEntryRepository.insertEntry(authorId, activityId, authorId, activityType, createdAt, score);
+        if (cacheable) {
+            timelineCache.offer(authorId, activityId, createdAt);
+            if (feedStreamService.isSubscribed(authorId)) {
+                streamRecipients.add(authorId);
+            }
+        }
+
+        if (!isPullAuthor(authorId)) {
+            written += forEachFollowerBatch(authorId, (followerIds, from, to, afterFollowerId, lastFollowerId) -> {
+                int inserted = timelineEntryRepository.insertForFollowerRange(
+                    activityId, authorId, activityType, createdAt, score, mutualFollowBonus, afterFollowerId, lastFollowerId);
+                if (cacheable) {
+                    for (int i = from; i < to; i++) {
+                        long followerId = followerIds[i];
+                        timelineCache.offer(followerId, activityId, createdAt);
+                        if (feedStreamService.isSubscribed(followerId)) {
+                            streamRecipients.add(followerId);
+                        }
+                    }
+                }
+                return inserted;
+            });
+        } else if (cacheable) {
+            timelineCache.offerToPullFollowers(authorId, activityId, createdAt);
+            streamRecipients.addAll(feedStreamService.findSubscribedFollowers(authorId));
+        }
+
+        if (!streamRecipients.isEmpty()) {
+            feedStreamService.publishActivity(activityId, createdAt, streamRecipients);
+        }
+
+        logger.debug("Fanned out activity {} from user {} to {} timelines", activityId, authorId, written);
+    }
+
+    /**
+     * フォロー開始時に相手の最近のアクティビティをタイムラインに取り込む
+     * プル配信対象のユーザーは読み取り時に取得するため何もしない
+     */
+    @Async("feedTaskExecutor")
+    public void backfill(Long followerId, Long followingId) {
+        if (!isPullAuthor(followingId)) {
+            timelineEntryRepository.backfillFromAuthor(followerId, followingId, backfillSize, mutualFollowBonus);
+        }
+        timelineCache.evict(followerId);
+    }
+
+    /**
+     * フォロー解除時に相手のアクティビティをタイムラインから削除
+     */
+    @Async("feedTaskExecutor")
+    public void prune(Long followerId, Long followingId) {
+        timelineEntryRepository.deleteByOwnerIdAndAuthorId(followerId, followingId);
+        timelineCache.evict(followerId);
+    }
+
+    /**
+     * プル配信対象のユーザーを再計算
+     * 対象から外れたユーザーは、最近のアクティビティをフォロワーのタイムラインに書き込む
+     */
+    @Scheduled(fixedDelayString = "${feed.timeline.pull-refresh-ms:300000}")
+    public void refreshPullAuthors() {
+        Set<Long> previous = pullAuthorIds;
+        Set<Long> refreshed = pullThreshold > 0
+            ? Set.copyOf(followCountRepository.findUserIdsWithFollowersAtLeast(pullThreshold))
+            : Set.of();
+        pullAuthorIds = refreshed;
+
+        for (Long authorId : previous) {
+            if (!refreshed.contains(authorId)) {
+                forEachFollowerBatch(authorId, (followerIds, from, to, afterFollowerId, lastFollowerId) ->
+                    timelineEntryRepository.backfillFollowerRange(
+                        authorId, backfillSize, mutualFollowBonus, afterFollowerId, lastFollowerId));
+            }
+        }
+
+        // キャッシュ済みタイムラインはプル対象を前提にしているため作り直す
+        if (!previous.equals(refreshed)) {
+            timelineCache.clear();
+        }
+    }
+
+    public boolean isPullAuthor(Long userId) {
+        return pullAuthorIds.contains(userId);
+    }
+
+    @FunctionalInterface
+    private interface FollowerBatchWriter {
+        // followerIds[from, to) が範囲 (afterFollowerId, lastFollowerId] のフォロワー（配列は変更しないこと）
+        long write(long[] followerIds, int from, int to, long afterFollowerId, long lastFollowerId);
+    }
+
+    /**
+     * フォロワーをID順にバッチ単位で走査し、範囲 (afterFollowerId, lastFollowerId] ごとに書き込む
+     *
+     * @return 書き込んだ行数の合計
+     */
+    private long forEachFollowerBatch(Long authorId, FollowerBatchWriter writer) {
+        long written = 0;
+
+        // フォロー関係のインデックスが使える場合は follows を読まず、共有の配列を範囲で区切って渡す（コピー・ボクシングなし）
+        if (socialGraphService.isReady()) {
+            long[] followerIds = socialGraphService.followersOf(authorId);
+            for (int from = 0; from < followerIds.length; from += fanoutBatchSize) {
+                int to = Math.min(from + fanoutBatchSize, followerIds.length);
+                long afterFollowerId = from == 0 ? 0L : followerIds[from - 1];
+                written += writer.write(followerIds, from, to, afterFollowerId, followerIds[to - 1]);
+            }
+            return written;
+        }
+
+        long afterFollowerId = 0L;
+        while (true) {
+            List<Long> followerIds = followRepository.findFollowerIdsAfter(
+                authorId, afterFollowerId, PageRequest.of(0, fanoutBatchSize));
+            if (followerIds.isEmpty()) {
+                break;
+            }
+
+            long lastFollowerId = followerIds.get(followerIds.size() - 1);
+            long[] batch = followerIds.stream().mapToLong(Long::longValue).toArray();
+            written += writer.write(batch, 0, batch.length, afterFollowerId, lastFollowerId);
+
+            if (followerIds.size() < fanoutBatchSize) {
+                break;
+            }
+            afterFollowerId = lastFollowerId;
+        }
+        return written;
+    }
+
+    /**
+     * ホームタイムラインを新しい順に取得
+     *
+     * @param ownerId タイムラインの持ち主
+     * @param filter 取得するアクティビティタイプ
+     * @param cursor キーセットページング用カーソル（nullの場合は page を使用）
+     * @param page ページ番号（オフセットページング）
+     * @param size ページサイズ
+     * @return フィードアイテム一覧（コメント・いいね状態は未設定）
+     */
+    @Transactional(readOnly = true)
+    public List<FeedItemDTO> readHomeTimeline(Long ownerId, ActivityTypeFilter filter, FeedCursor cursor, int page, int size) {
+        if (filter.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // キャッシュは既定の絞り込み条件の場合のみ使用
+        boolean cacheable = filter.isSameAs(ActivityTypeFilter.HOME_DEFAULT);
+        if (cacheable) {
+            TimelineCache.Slice cached = timelineCache.page(ownerId, cursor, page, size);
+            if (cached != null) {
+                return loadInOrder(cached);
+            }
+        }
+
+        List<Long> pulledAuthorIds = findFollowedPullAuthors(ownerId);
+
+        // 先頭ページはリング1本分の (アクティビティID, 作成日時) をインデックスから読んでキャッシュに載せ、
+        // フィードアイテムは返すページ分だけ取得する（残りはキャッシュから読まれた時に取得）
+        // 読み込む前に登録し、読み込み中に書き込まれたアクティビティもリングに含める
+        if (cacheable && cursor == null && page == 0) {
+            TimelineCache.Loading loading = timelineCache.beginLoad(ownerId, pulledAuthorIds);
+            List<TimelineRef> head;
+            try {
+                head = readHeadRefs(ownerId, pulledAuthorIds, filter, timelineCache.getRingSize());
+            } catch (RuntimeException e) {
+                timelineCache.cancelLoad(loading);
+                throw e;
+            }
+            timelineCache.load(
+                loading,
+                head.stream().mapToLong(TimelineRef::getActivityId).toArray(),
+                head.stream().mapToLong(TimelineRef::getCreatedAt).toArray()
+            );
+            return loadRefsInOrder(head.subList(0, Math.min(size, head.size())));
+        }
+
+        return readFromDatabase(ownerId, pulledAuthorIds, filter, cursor, page, size);
+    }
+
+    /**
+     * ランキング表示の1ページ
+     *
+     * @param items フィードアイテム一覧（コメント・いいね状態は未設定）
+     * @param nextCursor 次のページのカーソル（最後のページの場合はnull）
+     */
+    public record RankedPage(List<FeedItemDTO> items, RankedCursor nextCursor) {
+    }
+
+    /**
+     * ホームタイムラインをスコアの高い順に取得（ランキング表示）
+     * スコアは書き込み時と反応の変化時に計算済みのため、idx_timeline_owner_score の範囲読み取りだけで並ぶ
+     *
+     * @param cursor キーセットページング用カーソル（先頭ページはnull）
+     */
+    @Transactional(readOnly = true)
+    public RankedPage readRankedTimeline(Long ownerId, ActivityTypeFilter filter, RankedCursor cursor, int size) {
+        if (filter.isEmpty()) {
+            return new RankedPage(new ArrayList<>(), null);
+        }
+
+        List<RankedEntry> entries = cursor != null
+            ? timelineEntryRepository.findRankedByOwnerBefore(
+                ownerId, filter.getTypes(), cursor.getScore(), cursor.getId(), PageRequest.of(0, size))
+            : timelineEntryRepository.findRankedByOwner(ownerId, filter.getTypes(), PageRequest.of(0, size));
+
+        Map<Long, Double> scores = new LinkedHashMap<>();
+        long oldestCreatedAt = Long.MAX_VALUE;
+        long newestCreatedAt = Long.MIN_VALUE;
+        for (RankedEntry entry : entries) {
+            scores.put(entry.getActivityId(), entry.getScore());
+            oldestCreatedAt = Math.min(oldestCreatedAt, entry.getCreatedAt());
+            newestCreatedAt = Math.max(newestCreatedAt, entry.getCreatedAt());
+        }
+        List<FeedItemDTO> items = loadInOrder(new ArrayList<>(scores.keySet()), oldestCreatedAt, newestCreatedAt);
+
+        // プル配信対象ユーザーのアクティビティは最近のものからスコアを計算してマージする
+        List<Long> pulledAuthorIds = findFollowedPullAuthors(ownerId);
+        if (!pulledAuthorIds.isEmpty()) {
+            List<FeedItemDTO> pulled = activityRepository.findFeedItemsByUserIdIn(
+                pulledAuthorIds, filter.getTypes(), PageRequest.of(0, rankingPullCandidates));
+            for (FeedItemDTO item : pulled) {
+                double score = FeedScore.of(item.getLikeCount(), item.getCommentCount(), item.getCreatedAt());
+                boolean afterCursor = cursor == null || score < cursor.getScore()
+                    || (score == cursor.getScore() && item.getId() < cursor.getId());
+                if (afterCursor && !scores.containsKey(item.getId())) {
+                    scores.put(item.getId(), score);
+                    items.add(item);
+                }
+            }
+            items.sort(Comparator.comparing((FeedItemDTO item) -> scores.get(item.getId()))
+                .thenComparing(FeedItemDTO::getId)
+                .reversed());
+            if (items.size() > size) {
+                items = new ArrayList<>(items.subList(0, size));
+            }
+        }
+
+        RankedCursor nextCursor = null;
+        if (items.size() == size) {
+            FeedItemDTO last = items.get(items.size() - 1);
+            nextCursor = new RankedCursor(scores.get(last.getId()), last.getId());
+        }
+        return new RankedPage(items, nextCursor);
+    }
+
+    /**
+     * score 列の追加前に書き込まれたエントリのスコアを計算（起動時に一度だけ、ID範囲ごとに実行）
+     */
+    @Async("feedTaskExecutor")
+    @EventListener(ApplicationReadyEvent.class)
+    public void initializeScores() {
+        Long maxId = timelineEntryRepository.findMaxId();
+        if (maxId == null) {
+            return;
+        }
+
+        long initialized = 0;
+        for (long afterId = 0; afterId < maxId; afterId += initializeBatchSize) {
+            initialized += timelineEntryRepository.initializeScores(afterId, afterId + initializeBatchSize);
+        }
+
+        if (initialized > 0) {
+            logger.info("Initialized ranking scores of {} timeline entries", initialized);
+        }
+    }
+
+    /**
+     * ホームタイムラインのうちカーソル位置より新しいものを新しい順に取得（新着の取得用）
+     *
+     * @param cursor クライアントが保持している先頭のカーソル
+     * @param limit 最大件数
+     * @return フィードアイテム一覧（コメント・いいね状態は未設定）
+     */
+    @Transactional(readOnly = true)
+    public List<FeedItemDTO> readSince(Long ownerId, ActivityTypeFilter filter, FeedCursor cursor, int limit) {
+        if (filter.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        if (filter.isSameAs(ActivityTypeFilter.HOME_DEFAULT)) {
+            TimelineCache.Slice cached = timelineCache.newer(ownerId, cursor, limit);
+            if (cached != null) {
+                return loadInOrder(cached);
+            }
+        }
+
+        List<FeedItemDTO> pushed = loadRefsInOrder(timelineEntryRepository.findRefsByOwnerAfter(
+            ownerId, filter.getTypes(), cursor.getCreatedAt(), cursor.getId(), PageRequest.of(0, limit)));
+
+        List<Long> pulledAuthorIds = findFollowedPullAuthors(ownerId);
+        if (pulledAuthorIds.isEmpty()) {
+            return pushed;
+        }
+
+        List<FeedItemDTO> pulled = activityRepository.findFeedItemsByUserIdInAfter(
+            pulledAuthorIds, filter.getTypes(), cursor.getCreatedAt(), cursor.getId(), PageRequest.of(0, limit));
+        List<FeedItemDTO> merged = mergeByCreatedAt(pushed, pulled);
+        return new ArrayList<>(merged.subList(0, Math.min(limit, merged.size())));
+    }
+
+    /**
+     * ホームタイムラインのうちカーソル位置より新しいものの件数（limit 件で打ち切り）
+     * フィードアイテムは組み立てず、キャッシュまたはインデックスだけで数える
+     */
+    @Transactional(readOnly = true)
+    public int countUnread(Long ownerId, ActivityTypeFilter filter, FeedCursor cursor, int limit) {
+        if (filter.isEmpty()) {
+            return 0;
+        }
+
+        if (filter.isSameAs(ActivityTypeFilter.HOME_DEFAULT)) {
+            int cached = timelineCache.countNewer(ownerId, cursor, limit);
+            if (cached >= 0) {
+                return cached;
+            }
+        }
+
+        long count = timelineEntryRepository.countByOwnerAfter(
+            ownerId, filter.getTypes(), cursor.getCreatedAt(), cursor.getId(), limit);
+
+        // プル分は重複（プル対象の切り替え前に書き込まれたもの）を含みうるが、未読数の目安としては十分
+        List<Long> pulledAuthorIds = findFollowedPullAuthors(ownerId);
+        if (count < limit && !pulledAuthorIds.isEmpty()) {
+            count += activityRepository.countByUserIdInAfter(
+                pulledAuthorIds, filter.getTypes(), cursor.getCreatedAt(), cursor.getId(), limit);
+        }
+        return (int) Math.min(count, limit);
+    }
+
+    private List<FeedItemDTO> readFromDatabase(Long ownerId, List<Long> pulledAuthorIds, ActivityTypeFilter filter,
+                                               FeedCursor cursor, int page, int size) {
+        if (pulledAuthorIds.isEmpty()) {
+            return readPushed(ownerId, filter, cursor, page, size);
+        }
+
+        // プッシュ分とプル分をそれぞれ先頭から取得してマージする
+        // オフセットページングの場合は先頭から (page + 1) * size 件を取得して切り出す
+        int window = cursor != null ? size : (page + 1) * size;
+        List<FeedItemDTO> pushed = readPushed(ownerId, filter, cursor, 0, window);
+        List<FeedItemDTO> pulled = cursor != null
+            ? activityRepository.findFeedItemsByUserIdInBefore(
+                pulledAuthorIds, filter.getTypes(), cursor.getCreatedAt(), cursor.getId(), PageRequest.of(0, window))
+            : activityRepository.findFeedItemsByUserIdIn(
+                pulledAuthorIds, filter.getTypes(), PageRequest.of(0, window));
+
+        List<FeedItemDTO> merged = mergeByCreatedAt(pushed, pulled);
+        int from = Math.min(cursor != null ? 0 : page * size, merged.size());
+        int to = Math.min(from + size, merged.size());
+        return new ArrayList<>(merged.subList(from, to));
+    }
+
+    private List<FeedItemDTO> readPushed(Long ownerId, ActivityTypeFilter filter, FeedCursor cursor, int page, int size) {
+        return loadRefsInOrder(findPushedRefs(ownerId, filter, cursor, page, size));
+    }
+
+    private List<TimelineRef> findPushedRefs(Long ownerId, ActivityTypeFilter filter, FeedCursor cursor, int page, int size) {
+        List<TimelineRef> refs = findRefs(ownerId, filter, cursor, page, size);
+
+        // タイムライン導入前のユーザーは初回アクセス時にタイムラインを作成
+        if (refs.isEmpty() && cursor == null && page == 0 && rebuildIfNeeded(ownerId)) {
+            refs = findRefs(ownerId, filter, null, 0, size);
+        }
+        return refs;
+    }
+
+    // 先頭から limit 件の (アクティビティID, 作成日時)。プッシュ分とプル分をマージする
+    private List<TimelineRef> readHeadRefs(Long ownerId, List<Long> pulledAuthorIds, ActivityTypeFilter filter, int limit) {
+        List<TimelineRef> pushed = findPushedRefs(ownerId, filter, null, 0, limit);
+        if (pulledAuthorIds.isEmpty()) {
+            return pushed;
+        }
+
+        List<TimelineRef> pulled = activityRepository.findRefsByUserIdIn(
+            pulledAuthorIds, filter.getTypes(), PageRequest.of(0, limit));
+        Map<Long, TimelineRef> unique = new LinkedHashMap<>();
+        for (TimelineRef ref : pushed) {
+            unique.putIfAbsent(ref.getActivityId(), ref);
+        }
+        for (TimelineRef ref : pulled) {
+            unique.putIfAbsent(ref.getActivityId(), ref);
+        }
+
+        List<TimelineRef> merged = new ArrayList<>(unique.values());
+        merged.sort(Comparator.comparing(TimelineRef::getCreatedAt)
+            .thenComparing(TimelineRef::getActivityId)
+            .reversed());
+        return new ArrayList<>(merged.subList(0, Math.min(limit, merged.size())));
+    }
+
+    /**
+     * タイムラインを一度も作成していない場合だけ作成する
+     * 作成済みの印を users に残すため、フォローしていない（空のままの）ユーザーでも書き込みは初回の1回だけになる。
+     * 同時に作成しても ON CONFLICT DO NOTHING で重複しない。作成に失敗した場合は印を残さず次回に再試行する
+     *
+     * @return 1件以上書き込んだ場合はtrue
+     */
+    private boolean rebuildIfNeeded(Long ownerId) {
+        if (userRepository.findTimelineBuiltAt(ownerId) != null) {
+            return false;
+        }
+        int rebuilt = timelineEntryRepository.rebuild(ownerId, backfillSize, mutualFollowBonus);
+        userRepository.markTimelineBuilt(ownerId, System.currentTimeMillis());
+        return rebuilt > 0;
+    }
+
+    // フォロー中のプル配信対象ユーザー
+    private List<Long> findFollowedPullAuthors(Long ownerId) {
+        Set<Long> candidates = pullAuthorIds;
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+        if (socialGraphService.isReady()) {
+            // フォロー中とプル配信対象の少ない方を走査する
+            long[] following = socialGraphService.followingOf(ownerId);
+            List<Long> followed = new ArrayList<>();
+            if (following.length < candidates.size()) {
+                for (long followingId : following) {
+                    if (candidates.contains(followingId)) {
+                        followed.add(followingId);
+                    }
+                }
+                return followed;
+            }
+            for (Long authorId : candidates) {
+                if (socialGraphService.isFollowing(ownerId, authorId)) {
+                    followed.add(authorId);
+                }
+            }
+            return followed;
+        }
+        return followRepository.findFollowingIdsAmong(ownerId, candidates);
+    }
+
+    // (createdAt, id) の降順でマージ（プル対象の切り替え前に書き込まれた重複は除外）
+    private List<FeedItemDTO> mergeByCreatedAt(List<FeedItemDTO> pushed, List<FeedItemDTO> pulled) {
+        Map<Long, FeedItemDTO> unique = new LinkedHashMap<>();
+        for (FeedItemDTO item : pushed) {
+            unique.putIfAbsent(item.getId(), item);
+        }
+        for (FeedItemDTO item : pulled) {
+            unique.putIfAbsent(item.getId(), item);
+        }
+
+        List<FeedItemDTO> merged = new ArrayList<>(unique.values());
+        merged.sort(Comparator.comparing(FeedItemDTO::getCreatedAt)
+            .thenComparing(FeedItemDTO::getId)
+            .reversed());
+        return merged;
+    }
+
+    private List<TimelineRef> findRefs(Long ownerId, ActivityTypeFilter filter, FeedCursor cursor, int page, int size) {
+        if (cursor != null) {
+            return timelineEntryRepository.findRefsByOwnerBefore(
+                ownerId, filter.getTypes(), cursor.getCreatedAt(), cursor.getId(), PageRequest.of(0, size));
+        }
+        return timelineEntryRepository.findRefsByOwner(ownerId, filter.getTypes(), PageRequest.of(page, size));
+    }
+
+    private List<FeedItemDTO> loadInOrder(TimelineCache.Slice slice) {
+        if (slice.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return loadInOrder(Arrays.stream(slice.activityIds()).boxed().collect(Collectors.toList()),
+            slice.oldestCreatedAt(), slice.newestCreatedAt());
+    }
+
+    private List<FeedItemDTO> loadRefsInOrder(List<TimelineRef> refs) {
+        List<Long> activityIds = new ArrayList<>(refs.size());
+        long oldestCreatedAt = Long.MAX_VALUE;
+        long newestCreatedAt = Long.MIN_VALUE;
+        for (TimelineRef ref : refs) {
+            activityIds.add(ref.getActivityId());
+            oldestCreatedAt = Math.min(oldestCreatedAt, ref.getCreatedAt());
+            newestCreatedAt = Math.max(newestCreatedAt, ref.getCreatedAt());
+        }
+        return loadInOrder(activityIds, oldestCreatedAt, newestCreatedAt);
+    }
+
+    // IN句で取得したフィードアイテムをタイムラインの順序に並べ直す
+    // 作成日時の範囲を条件に加え、activities の該当する月のパーティションだけを読む
+    private List<FeedItemDTO> loadInOrder(List<Long> activityIds, long oldestCreatedAt, long newestCreatedAt) {
+        if (activityIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Map<Long, FeedItemDTO> itemsById = activityRepository
+            .findFeedItemsByIdInRange(activityIds, oldestCreatedAt, newestCreatedAt).stream()
+            .collect(Collectors.toMap(FeedItemDTO::getId, Function.identity()));
+
+        List<FeedItemDTO> items = new ArrayList<>(activityIds.size());
+        for (Long activityId : activityIds) {
+            FeedItemDTO item = itemsById.get(activityId);
+            if (item != null) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.ippi.service;
+
+import com.example.ippi.entity.User;
+import com.example.ippi.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * メールアドレス（認証情報の名前）からユーザーIDへのキャッシュ
+ *
+ * メールアドレスは登録後に変更されず、ユーザーも削除されないため、一度引いた対応は無効にしない。
+ * 保持する件数の上限を超えた場合は最も使われていないものから破棄する（LRU）
+ */
+@Component
+public class UserIdCache {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Value("${feed.user-id-cache.max-size:10000}")
+    private int maxSize;
+
+    // アクセス順（先頭が最も使われていない）。this で同期する
+    private final LinkedHashMap<String, Long> ids = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    /**
+     * @return ユーザーID（該当するユーザーがいない場合はnull、キャッシュしない）
+     */
+    public Long idOf(String email) {
+        synchronized (this) {
+            Long cached = ids.get(email);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Long id = userRepository.findByEmail(email).map(User::getId).orElse(null);
+        if (id != null) {
+            synchronized (this) {
+                ids.put(email, id);
+            }
+        }
+        return id;
+    }
+}
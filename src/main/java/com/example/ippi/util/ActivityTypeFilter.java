@@ -0,0 +1,83 @@
+package com.example.ippi.util;
+
+import com.example.ippi.entity.Activity;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * フィードで取得するアクティビティタイプの絞り込み条件
+ *
+ * 含める／除外するタイプを、クエリの IN 句にそのまま渡せるタイプ一覧に解決する
+ */
+public class ActivityTypeFilter {
+
+    // すべてのタイプ
+    public static final ActivityTypeFilter ALL = new ActivityTypeFilter(Activity.ALL_TYPES);
+
+    // ホームフィードの既定（アチーブメントを除外）
+    public static final ActivityTypeFilter HOME_DEFAULT = new ActivityTypeFilter(
+        Activity.ALL_TYPES.stream()
+            .filter(type -> !Activity.TYPE_ACHIEVEMENT.equals(type))
+            .collect(Collectors.toList())
+    );
+
+    private final List<String> types;
+
+    private ActivityTypeFilter(List<String> types) {
+        this.types = List.copyOf(types);
+    }
+
+    /**
+     * リクエストパラメータから絞り込み条件を作成
+     *
+     * @param include 含めるタイプ（未指定の場合はすべて）
+     * @param exclude 除外するタイプ
+     * @param defaults どちらも未指定の場合の条件
+     * @throws IllegalArgumentException 不明なタイプが指定された場合
+     */
+    public static ActivityTypeFilter of(List<String> include, List<String> exclude, ActivityTypeFilter defaults) {
+        boolean hasInclude = include != null && !include.isEmpty();
+        boolean hasExclude = exclude != null && !exclude.isEmpty();
+        if (!hasInclude && !hasExclude) {
+            return defaults;
+        }
+
+        validate(include);
+        validate(exclude);
+
+        List<String> types = Activity.ALL_TYPES.stream()
+            .filter(type -> !hasInclude || include.contains(type))
+            .filter(type -> !hasExclude || !exclude.contains(type))
+            .collect(Collectors.toList());
+        return new ActivityTypeFilter(types);
+    }
+
+    private static void validate(List<String> types) {
+        if (types == null) {
+            return;
+        }
+        for (String type : types) {
+            if (!Activity.ALL_TYPES.contains(type)) {
+                throw new IllegalArgumentException("Unknown activity type: " + type);
+            }
+        }
+    }
+
+    public List<String> getTypes() {
+        return types;
+    }
+
+    public boolean includes(String type) {
+        return types.contains(type);
+    }
+
+    // 該当するタイプがない（クエリを発行するまでもなく結果は空）
+    public boolean isEmpty() {
+        return types.isEmpty();
+    }
+
+    public boolean isSameAs(ActivityTypeFilter other) {
+        return types.equals(other.types);
+    }
+}
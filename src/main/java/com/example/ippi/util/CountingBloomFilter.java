@@ -0,0 +1,103 @@
+package com.example.ippi.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * (long, long) の組のカウンティングブルームフィルタ
+ *
+ * mightContain が false の組は確実に含まれていない（true の場合は含まれている可能性がある）。
+ * 4ビットのカウンタを long に16個ずつ詰めて CAS で更新するため、削除もでき、読み取りはロック不要。
+ * 上限（15）に達したカウンタはそれ以降減らさない（誤って0にしないため）
+ */
+public class CountingBloomFilter {
+
+    private static final int COUNTERS_PER_WORD = 16;
+    private static final long COUNTER_MAX = 0xFL;
+
+    private final AtomicLongArray words;
+    private final int counterCount;
+    private final int hashCount;
+
+    /**
+     * @param expectedItems 想定する要素数
+     * @param falsePositiveRate 想定する要素数のときの偽陽性率
+     */
+    public CountingBloomFilter(long expectedItems, double falsePositiveRate) {
+        long n = Math.max(1, expectedItems);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.counterCount = (int) Math.min(Math.max(m, COUNTERS_PER_WORD), Integer.MAX_VALUE - COUNTERS_PER_WORD);
+        this.hashCount = Math.max(1, (int) Math.round((double) counterCount / n * Math.log(2)));
+        this.words = new AtomicLongArray((counterCount + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD);
+    }
+
+    public void add(long a, long b) {
+        long h = hash(a, b);
+        for (int i = 0; i < hashCount; i++) {
+            update(index(h, i), 1);
+        }
+    }
+
+    public void remove(long a, long b) {
+        long h = hash(a, b);
+        for (int i = 0; i < hashCount; i++) {
+            update(index(h, i), -1);
+        }
+    }
+
+    public boolean mightContain(long a, long b) {
+        long h = hash(a, b);
+        for (int i = 0; i < hashCount; i++) {
+            int index = index(h, i);
+            long word = words.get(index / COUNTERS_PER_WORD);
+            if (((word >>> shift(index)) & COUNTER_MAX) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * カウンタとして使っているバイト数
+     */
+    public long sizeInBytes() {
+        return words.length() * 8L;
+    }
+
+    private void update(int index, int delta) {
+        int slot = index / COUNTERS_PER_WORD;
+        int shift = shift(index);
+        while (true) {
+            long word = words.get(slot);
+            long counter = (word >>> shift) & COUNTER_MAX;
+            // 上限に達したものは減らさない・0のものは減らさない
+            if (counter == COUNTER_MAX || (delta < 0 && counter == 0)) {
+                return;
+            }
+            long updated = delta > 0 ? word + (1L << shift) : word - (1L << shift);
+            if (words.compareAndSet(slot, word, updated)) {
+                return;
+            }
+        }
+    }
+
+    private static int shift(int index) {
+        return (index % COUNTERS_PER_WORD) * 4;
+    }
+
+    // ダブルハッシング（h1 + i * h2）
+    private int index(long h, int i) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        return Math.floorMod(h1 + i * h2, counterCount);
+    }
+
+    private static long hash(long a, long b) {
+        long h = a * 0x9E3779B97F4A7C15L + b;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
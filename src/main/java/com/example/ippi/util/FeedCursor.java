@@ -0,0 +1,55 @@
+package com.example.ippi.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * フィードのキーセットページング用カーソル
+ *
+ * (createdAt, id) の組をクライアントからは中身の見えない文字列として扱う
+ */
+public class FeedCursor {
+
+    private final long createdAt;
+    private final long id;
+
+    public FeedCursor(long createdAt, long id) {
+        this.createdAt = createdAt;
+        this.id = id;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String encode() {
+        String raw = createdAt + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * カーソル文字列を復元
+     *
+     * @throws IllegalArgumentException 形式が不正な場合
+     */
+    public static FeedCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new FeedCursor(
+                Long.parseLong(raw.substring(0, separator)),
+                Long.parseLong(raw.substring(separator + 1))
+            );
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException もここで捕捉される
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.ippi.util;
+
+/**
+ * ランキング表示用のスコア
+ *
+ * Reddit の hot スコアと同じ形で、反応の多さ（対数）と作成日時の和をとる。
+ * 作成日時の項は時刻とともに増えるだけなので、スコアは反応が変わったときだけ再計算すればよい。
+ * 45,000,000ミリ秒（12.5時間）新しいことと、反応が10倍であることが同じ重みになる
+ */
+public final class FeedScore {
+
+    // コメントはいいねより重く数える
+    public static final int COMMENT_WEIGHT = 2;
+
+    public static final double MILLIS_PER_POINT = 45_000_000.0;
+
+    /**
+     * ネイティブクエリ用の同じ計算式（activities の別名を a とする）
+     * of() と必ず一致させること
+     */
+    public static final String SQL =
+        "(LOG(CAST(GREATEST(1, a.like_count + " + COMMENT_WEIGHT + " * a.comment_count) AS double precision)) " +
+        "+ CAST(a.created_at AS double precision) / 45000000.0)";
+
+    private FeedScore() {}
+
+    public static double of(long likeCount, long commentCount, long createdAt) {
+        return Math.log10(Math.max(1, likeCount + COMMENT_WEIGHT * commentCount)) + createdAt / MILLIS_PER_POINT;
+    }
+}
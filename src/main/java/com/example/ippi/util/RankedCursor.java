@@ -0,0 +1,56 @@
+package com.example.ippi.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * ランキング表示のキーセットページング用カーソル
+ *
+ * (score, id) の組をクライアントからは中身の見えない文字列として扱う
+ */
+public class RankedCursor {
+
+    private final double score;
+    private final long id;
+
+    public RankedCursor(double score, long id) {
+        this.score = score;
+        this.id = id;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String encode() {
+        // double は丸めずにビット列のまま保持する
+        String raw = Long.toHexString(Double.doubleToLongBits(score)) + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * カーソル文字列を復元
+     *
+     * @throws IllegalArgumentException 形式が不正な場合
+     */
+    public static RankedCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new RankedCursor(
+                Double.longBitsToDouble(Long.parseUnsignedLong(raw.substring(0, separator), 16)),
+                Long.parseLong(raw.substring(separator + 1))
+            );
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException もここで捕捉される
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+-- activities を created_at（エポックミリ秒）の月ごとのレンジパーティションに移行する
+-- ddl-auto では分割テーブルを作成できないため、アプリケーションを停止して一度だけ手動で実行する
+-- 以降の月のパーティション作成と古いパーティションのアーカイブは ActivityPartitionService が行う
+
+BEGIN;
+
+ALTER TABLE activities RENAME TO activities_legacy;
+ALTER INDEX IF EXISTS idx_activities_user_created RENAME TO idx_activities_legacy_user_created;
+ALTER INDEX IF EXISTS idx_activities_user_type_created RENAME TO idx_activities_legacy_user_type_created;
+
+-- feed_likes / feed_comments からの外部キーは分割テーブルの主キー (id, created_at) を参照できないため削除
+ALTER TABLE feed_likes DROP CONSTRAINT IF EXISTS fk_feed_likes_activity;
+ALTER TABLE feed_comments DROP CONSTRAINT IF EXISTS fk_feed_comments_activity;
+DO $$
+DECLARE
+    r record;
+BEGIN
+    FOR r IN
+        SELECT c.conrelid::regclass AS tbl, c.conname
+        FROM pg_constraint c
+        WHERE c.contype = 'f' AND c.confrelid = 'activities_legacy'::regclass
+    LOOP
+        EXECUTE format('ALTER TABLE %s DROP CONSTRAINT %I', r.tbl, r.conname);
+    END LOOP;
+END $$;
+
+CREATE TABLE activities (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    user_id BIGINT NOT NULL REFERENCES users (id),
+    activity_type VARCHAR(50) NOT NULL,
+    message VARCHAR(500),
+    related_data VARCHAR(1000),
+    created_at BIGINT NOT NULL,
+    like_count BIGINT NOT NULL DEFAULT 0,
+    comment_count BIGINT NOT NULL DEFAULT 0,
+    -- 分割テーブルの主キー・一意制約にはパーティションキーを含める必要があるため (id, created_at) とする
+    -- このため id 単独の一意性はデータベースでは保証されない（id は IDENTITY の採番だけで重複しない前提）
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
+
+-- 既定パーティションは作成しない
+-- 既定パーティションがあると、アーカイブ時に DETACH PARTITION ... CONCURRENTLY を使えず、
+-- activities 全体を ACCESS EXCLUSIVE でロックすることになる。先の月のパーティションは ActivityPartitionService が事前に作成する
+
+-- 既存データの最古の月から翌々月まで、月ごとのパーティションを作成
+-- 古い月も月ごとに分けておくことで、保持期間を過ぎた月は ActivityPartitionService がパーティションごとアーカイブできる
+DO $$
+DECLARE
+    month_start timestamptz;
+    last_month timestamptz;
+BEGIN
+    SELECT date_trunc('month', to_timestamp(COALESCE(MIN(created_at), (extract(epoch FROM now()) * 1000)::bigint) / 1000.0)
+                      AT TIME ZONE 'UTC') AT TIME ZONE 'UTC'
+    INTO month_start
+    FROM activities_legacy;
+    last_month := date_trunc('month', now() AT TIME ZONE 'UTC') AT TIME ZONE 'UTC' + interval '2 months';
+
+    WHILE month_start <= last_month LOOP
+        EXECUTE format(
+            'CREATE TABLE activities_p%s PARTITION OF activities FOR VALUES FROM (%s) TO (%s)',
+            to_char(month_start AT TIME ZONE 'UTC', 'YYYYMM'),
+            (extract(epoch FROM month_start) * 1000)::bigint,
+            (extract(epoch FROM month_start + interval '1 month') * 1000)::bigint
+        );
+        month_start := month_start + interval '1 month';
+    END LOOP;
+END $$;
+
+CREATE INDEX idx_activities_user_created ON activities (user_id, created_at DESC, id DESC);
+CREATE INDEX idx_activities_user_type_created ON activities (user_id, activity_type, created_at DESC);
+-- ID指定の取得用（created_at の範囲でパーティションを絞り込んだうえで使う）
+-- 一意インデックスにはできない（パーティションキーを含まない一意インデックスは分割テーブルに作成できない）。
+-- created_at を指定しない ID 指定の取得は、すべてのパーティションのこのインデックスを順に引くことになる
+CREATE INDEX idx_activities_id ON activities (id);
+
+INSERT INTO activities (id, user_id, activity_type, message, related_data, created_at, like_count, comment_count)
+SELECT id, user_id, activity_type, message, related_data, created_at, like_count, comment_count
+FROM activities_legacy;
+
+SELECT setval(pg_get_serial_sequence('activities', 'id'), COALESCE((SELECT MAX(id) FROM activities), 0) + 1, false);
+
+-- 保持期間を過ぎたパーティションの移動先（フィードには表示しないため、いいね数などは持たない）
+CREATE TABLE IF NOT EXISTS activities_archive (
+    id BIGINT PRIMARY KEY,
+    user_id BIGINT NOT NULL,
+    activity_type VARCHAR(50) NOT NULL,
+    message VARCHAR(500),
+    related_data VARCHAR(1000),
+    created_at BIGINT NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_activities_archive_user_created ON activities_archive (user_id, created_at DESC);
+
+DROP TABLE activities_legacy;
+
+COMMIT;
@@ -0,0 +1,80 @@
+-- activities.related_data を jsonb に変換し、内容を検索するための GIN インデックスを作成する
+-- migration_partition_activities.sql の適用後に一度だけ手動で実行する（分割テーブルの場合は各パーティションにも作成される）
+-- 適用後は API の relatedData が JSON 文字列ではなくオブジェクトになる（README 参照）
+
+BEGIN;
+
+-- JSON として解釈できない値は NULL にする（変換が1行の不正な値で中断しないように）
+CREATE OR REPLACE FUNCTION ippi_try_jsonb(value text) RETURNS jsonb
+LANGUAGE plpgsql IMMUTABLE AS $$
+BEGIN
+    RETURN value::jsonb;
+EXCEPTION WHEN others THEN
+    RETURN NULL;
+END $$;
+
+-- 以前のフォローのアクティビティは名前をエスケープせずに組み立てていたため、
+-- 名前に " や \ を含むと不正な JSON になっている。followerId からユーザーを引いて作り直す
+UPDATE activities a
+SET related_data = jsonb_build_object('followerId', u.id, 'followerName', u.name)::text
+FROM users u
+WHERE a.activity_type = 'follow'
+  AND a.related_data IS NOT NULL
+  AND ippi_try_jsonb(a.related_data) IS NULL
+  AND u.id = substring(a.related_data FROM '"followerId":\s*(\d+)')::bigint;
+
+DO $$
+BEGIN
+    IF to_regclass('activities_archive') IS NOT NULL THEN
+        UPDATE activities_archive a
+        SET related_data = jsonb_build_object('followerId', u.id, 'followerName', u.name)::text
+        FROM users u
+        WHERE a.activity_type = 'follow'
+          AND a.related_data IS NOT NULL
+          AND ippi_try_jsonb(a.related_data) IS NULL
+          AND u.id = substring(a.related_data FROM '"followerId":\s*(\d+)')::bigint;
+    END IF;
+END $$;
+
+-- 作り直せなかった値は NULL になるため、件数を出しておく
+DO $$
+DECLARE
+    invalid bigint;
+BEGIN
+    SELECT COUNT(*) INTO invalid FROM activities
+    WHERE related_data IS NOT NULL AND ippi_try_jsonb(related_data) IS NULL;
+    IF invalid > 0 THEN
+        RAISE NOTICE '% activities have invalid related_data, converting them to NULL', invalid;
+    END IF;
+END $$;
+
+ALTER TABLE activities ALTER COLUMN related_data TYPE jsonb USING ippi_try_jsonb(related_data);
+ALTER TABLE IF EXISTS activities_archive ALTER COLUMN related_data TYPE jsonb USING ippi_try_jsonb(related_data);
+
+DROP FUNCTION ippi_try_jsonb(text);
+
+-- 集約前のフォローのアクティビティはフォロワー1人分で followerIds / followerCount を持たないため補う
+-- （フォロー解除時の followerIds の @> 検索で見つかるように）
+UPDATE activities
+SET related_data = related_data
+    || jsonb_build_object('followerIds', jsonb_build_array(related_data -> 'followerId'), 'followerCount', 1)
+WHERE activity_type = 'follow'
+  AND related_data ? 'followerId'
+  AND NOT related_data ? 'followerIds';
+
+DO $$
+BEGIN
+    IF to_regclass('activities_archive') IS NOT NULL THEN
+        UPDATE activities_archive
+        SET related_data = related_data
+            || jsonb_build_object('followerIds', jsonb_build_array(related_data -> 'followerId'), 'followerCount', 1)
+        WHERE activity_type = 'follow'
+          AND related_data ? 'followerId'
+          AND NOT related_data ? 'followerIds';
+    END IF;
+END $$;
+
+-- @> による検索用（例: related_data @> '{"followerIds": [123]}' でフォロワー123を含むアクティビティ）
+CREATE INDEX IF NOT EXISTS idx_activities_related_data ON activities USING GIN (related_data jsonb_path_ops);
+
+COMMIT;
@@ -0,0 +1,132 @@
+package com.example.ippi.service;
+
+import com.example.ippi.dto.FollowedData;
+import com.example.ippi.entity.Activity;
+import com.example.ippi.entity.User;
+import com.example.ippi.repository.ActivityRepository;
+import com.example.ippi.repository.FeedCommentRepository;
+import com.example.ippi.repository.FeedLikeRepository;
+import com.example.ippi.repository.TimelineEntryRepository;
+import com.example.ippi.repository.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ActivityServiceTest {
+
+    private static final long FOLLOWED_USER_ID = 1L;
+    private static final long FOLLOWER_ID = 2L;
+    private static final long ACTIVITY_ID = 10L;
+
+    @Mock
+    private ActivityRepository activityRepository;
+
+    @Mock
+    private TimelineService timelineService;
+
+    @Mock
+    private TimelineEntryRepository timelineEntryRepository;
+
+    @Mock
+    private FeedLikeRepository feedLikeRepository;
+
+    @Mock
+    private FeedCommentRepository feedCommentRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @InjectMocks
+    private ActivityService activityService;
+
+    private final RelatedDataMapper relatedDataMapper = new RelatedDataMapper();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(relatedDataMapper, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(activityService, "relatedDataMapper", relatedDataMapper);
+        ReflectionTestUtils.setField(activityService, "transactionTemplate", new TransactionTemplate(transactionManager));
+        ReflectionTestUtils.setField(activityService, "maxFollowerIds", 50);
+    }
+
+    // いいね・コメントされたフォローのアクティビティも、最後のフォロワーが解除すればまとめて削除される
+    @Test
+    void removeFollowedActivityDeletesLikesCommentsAndTimelineEntriesWithActivity() {
+        when(activityRepository.findFollowedActivitiesReferencing(FOLLOWED_USER_ID, FOLLOWER_ID))
+            .thenReturn(List.of(followedActivity(new FollowedData(FOLLOWER_ID, "follower", List.of(FOLLOWER_ID), 1))));
+
+        activityService.removeFollowedActivity(FOLLOWED_USER_ID, FOLLOWER_ID);
+
+        InOrder inOrder = inOrder(transactionManager, feedLikeRepository, feedCommentRepository,
+            timelineEntryRepository, activityRepository);
+        inOrder.verify(transactionManager).getTransaction(any());
+        inOrder.verify(feedLikeRepository).deleteByActivityId(ACTIVITY_ID);
+        inOrder.verify(feedCommentRepository).deleteByActivityId(ACTIVITY_ID);
+        inOrder.verify(timelineEntryRepository).deleteByActivityId(ACTIVITY_ID);
+        inOrder.verify(activityRepository).deleteByActivityId(ACTIVITY_ID);
+        inOrder.verify(transactionManager).commit(any());
+    }
+
+    // 途中で失敗した場合はロールバックし、アクティビティだけが残ることも、エントリだけが消えることもない
+    @Test
+    void removeFollowedActivityRollsBackWhenDeletingCommentsFails() {
+        when(activityRepository.findFollowedActivitiesReferencing(FOLLOWED_USER_ID, FOLLOWER_ID))
+            .thenReturn(List.of(followedActivity(new FollowedData(FOLLOWER_ID, "follower", List.of(FOLLOWER_ID), 1))));
+        when(feedCommentRepository.deleteByActivityId(ACTIVITY_ID)).thenThrow(new IllegalStateException("failed"));
+
+        assertThrows(IllegalStateException.class,
+            () -> activityService.removeFollowedActivity(FOLLOWED_USER_ID, FOLLOWER_ID));
+
+        verify(transactionManager).rollback(any());
+        verify(transactionManager, never()).commit(any());
+        verify(activityRepository, never()).deleteByActivityId(anyLong());
+    }
+
+    // 他のフォロワーが残っている場合は削除せず、メッセージを書き直す
+    @Test
+    void removeFollowedActivityKeepsActivityWhileOtherFollowersRemain() {
+        long otherFollowerId = 3L;
+        when(activityRepository.findFollowedActivitiesReferencing(FOLLOWED_USER_ID, FOLLOWER_ID))
+            .thenReturn(List.of(followedActivity(
+                new FollowedData(otherFollowerId, "other", List.of(otherFollowerId, FOLLOWER_ID), 2))));
+
+        activityService.removeFollowedActivity(FOLLOWED_USER_ID, FOLLOWER_ID);
+
+        verify(activityRepository).updateMessage(eq(ACTIVITY_ID), eq("otherさんにフォローされました"), anyString());
+        verify(feedLikeRepository, never()).deleteByActivityId(anyLong());
+        verify(feedCommentRepository, never()).deleteByActivityId(anyLong());
+        verify(activityRepository, never()).deleteByActivityId(anyLong());
+    }
+
+    private Activity followedActivity(FollowedData data) {
+        User followedUser = new User();
+        followedUser.setId(FOLLOWED_USER_ID);
+        Activity activity = new Activity(followedUser, Activity.TYPE_FOLLOW, "", relatedDataMapper.write(data), 0L);
+        activity.setId(ACTIVITY_ID);
+        return activity;
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.ippi.service;
+
+import com.example.ippi.util.FeedCursor;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimelineCacheTest {
+
+    private static final long[] NO_PULLED_AUTHORS = new long[0];
+
+    // id 3, 2, 1（作成日時 30, 20, 10）を容量4のリングに読み込む（全体を保持）
+    private static TimelineCache.Ring loadedRing() {
+        return new TimelineCache.Ring(4, new long[] {3, 2, 1}, new long[] {30, 20, 10}, NO_PULLED_AUTHORS);
+    }
+
+    private static long[] ids(TimelineCache.Slice slice) {
+        return slice.activityIds();
+    }
+
+    // 書き込み位置が配列の末尾を何周しても、論理インデックス0から新しい順に読める
+    @Test
+    void pushWrapsAroundAndKeepsNewestFirst() {
+        TimelineCache.Ring ring = loadedRing();
+        for (long id = 4; id <= 9; id++) {
+            ring.push(id, id * 10);
+        }
+
+        TimelineCache.Slice slice = ring.page(null, 0, 4);
+        assertArrayEquals(new long[] {9, 8, 7, 6}, ids(slice));
+        assertEquals(60, slice.oldestCreatedAt());
+        assertEquals(90, slice.newestCreatedAt());
+
+        assertArrayEquals(new long[] {9, 8}, ids(ring.page(null, 0, 2)));
+        assertArrayEquals(new long[] {7, 6}, ids(ring.page(null, 1, 2)));
+    }
+
+    // 容量に達するまでは全体を保持しているため、リングの末尾で打ち切って返す
+    @Test
+    void pageIsTruncatedWhileRingIsComplete() {
+        TimelineCache.Ring ring = loadedRing();
+        assertArrayEquals(new long[] {3, 2, 1}, ids(ring.page(null, 0, 10)));
+
+        ring.push(4, 40);
+        assertArrayEquals(new long[] {4, 3, 2, 1}, ids(ring.page(null, 0, 10)));
+        assertTrue(ring.page(null, 1, 10).isEmpty());
+    }
+
+    // 最古の要素が押し出されると、リングより先はデータベースから読む必要がある
+    @Test
+    void evictionMakesRingIncomplete() {
+        TimelineCache.Ring ring = loadedRing();
+        ring.push(4, 40);
+        ring.push(5, 50);
+
+        assertArrayEquals(new long[] {5, 4, 3, 2}, ids(ring.page(null, 0, 4)));
+        assertNull(ring.page(null, 0, 10));
+        assertNull(ring.page(null, 2, 2));
+    }
+
+    @Test
+    void loadingFullRingIsIncomplete() {
+        TimelineCache.Ring ring = new TimelineCache.Ring(
+            2, new long[] {3, 2, 1}, new long[] {30, 20, 10}, NO_PULLED_AUTHORS);
+
+        assertArrayEquals(new long[] {3, 2}, ids(ring.page(null, 0, 2)));
+        assertNull(ring.page(null, 0, 3));
+    }
+
+    // 満杯のリングより古いものは保持しない
+    @Test
+    void olderThanFullRingIsDropped() {
+        TimelineCache.Ring ring = loadedRing();
+        ring.push(4, 40);
+
+        ring.push(0, 5);
+
+        assertArrayEquals(new long[] {4, 3, 2, 1}, ids(ring.page(null, 0, 4)));
+    }
+
+    // 遅れて届いたアクティビティは (createdAt, id) の順の位置に入る
+    @Test
+    void outOfOrderPushIsInsertedInPlace() {
+        TimelineCache.Ring ring = new TimelineCache.Ring(4, new long[] {3, 1}, new long[] {30, 10}, NO_PULLED_AUTHORS);
+
+        ring.push(2, 20);
+        ring.push(4, 30);
+
+        assertArrayEquals(new long[] {4, 3, 2, 1}, ids(ring.page(null, 0, 4)));
+    }
+
+    @Test
+    void duplicatePushIsIgnored() {
+        TimelineCache.Ring ring = loadedRing();
+
+        ring.push(3, 30);
+
+        assertArrayEquals(new long[] {3, 2, 1}, ids(ring.page(null, 0, 10)));
+    }
+
+    @Test
+    void pageAfterCursor() {
+        TimelineCache.Ring ring = loadedRing();
+
+        assertArrayEquals(new long[] {2, 1}, ids(ring.page(new FeedCursor(30, 3), 0, 2)));
+        assertTrue(ring.page(new FeedCursor(10, 1), 0, 2).isEmpty());
+    }
+
+    @Test
+    void newerThanCursor() {
+        TimelineCache.Ring ring = loadedRing();
+
+        assertEquals(1, ring.countNewer(new FeedCursor(20, 2), 10));
+        assertArrayEquals(new long[] {3}, ids(ring.newer(new FeedCursor(20, 2), 10)));
+        assertEquals(2, ring.countNewer(new FeedCursor(0, 0), 2));
+    }
+
+    // リングの末尾まで新しい要素が続き、その先を保持していない場合は件数が確定しない
+    @Test
+    void newerIsUnknownPastIncompleteRing() {
+        TimelineCache.Ring ring = new TimelineCache.Ring(
+            2, new long[] {3, 2, 1}, new long[] {30, 20, 10}, NO_PULLED_AUTHORS);
+
+        assertEquals(-1, ring.countNewer(new FeedCursor(10, 1), 10));
+        assertNull(ring.newer(new FeedCursor(10, 1), 10));
+        assertEquals(2, ring.countNewer(new FeedCursor(10, 1), 2));
+    }
+
+    @Test
+    void pullsFromLoadedAuthorsOnly() {
+        TimelineCache.Ring ring = new TimelineCache.Ring(4, new long[0], new long[0], new long[] {5, 9});
+
+        assertTrue(ring.pullsFrom(9));
+        assertFalse(ring.pullsFrom(7));
+    }
+
+    private static TimelineCache cache() {
+        TimelineCache cache = new TimelineCache();
+        ReflectionTestUtils.setField(cache, "maxUsers", 100);
+        ReflectionTestUtils.setField(cache, "ringSize", 4);
+        ReflectionTestUtils.setField(cache, "ttlMillis", 600000L);
+        cache.init();
+        return cache;
+    }
+
+    // 読み込み前のリングがない所有者への追加も、読み込み中であれば作成したリングに含まれる
+    @Test
+    void offerDuringLoadIsMergedIntoLoadedRing() {
+        TimelineCache cache = cache();
+
+        TimelineCache.Loading loading = cache.beginLoad(1L, List.of());
+        cache.offer(1L, 4, 40);
+        cache.load(loading, new long[] {3, 2, 1}, new long[] {30, 20, 10});
+
+        assertArrayEquals(new long[] {4, 3, 2, 1}, ids(cache.page(1L, null, 0, 10)));
+    }
+
+    // 読み込んだ結果に含まれていた追加は重複しない
+    @Test
+    void offerAlreadyInLoadedRowsIsNotDuplicated() {
+        TimelineCache cache = cache();
+
+        TimelineCache.Loading loading = cache.beginLoad(1L, List.of());
+        cache.offer(1L, 3, 30);
+        cache.load(loading, new long[] {3, 2, 1}, new long[] {30, 20, 10});
+
+        assertArrayEquals(new long[] {3, 2, 1}, ids(cache.page(1L, null, 0, 10)));
+    }
+
+    @Test
+    void pullOfferDuringLoadIsMergedIntoLoadedRing() {
+        TimelineCache cache = cache();
+
+        TimelineCache.Loading loading = cache.beginLoad(1L, List.of(9L));
+        cache.offerToPullFollowers(9, 4, 40);
+        cache.offerToPullFollowers(8, 5, 50);
+        cache.load(loading, new long[] {3, 2, 1}, new long[] {30, 20, 10});
+
+        assertArrayEquals(new long[] {4, 3, 2, 1}, ids(cache.page(1L, null, 0, 10)));
+    }
+
+    @Test
+    void offerAfterLoadGoesToRing() {
+        TimelineCache cache = cache();
+
+        cache.load(cache.beginLoad(1L, List.of()), new long[] {2, 1}, new long[] {20, 10});
+        cache.offer(1L, 3, 30);
+
+        assertArrayEquals(new long[] {3, 2, 1}, ids(cache.page(1L, null, 0, 10)));
+    }
+
+    @Test
+    void offerWithoutRingOrLoadIsIgnored() {
+        TimelineCache cache = cache();
+
+        cache.offer(1L, 3, 30);
+
+        assertNull(cache.page(1L, null, 0, 10));
+    }
+
+    // 読み込み中に evict された場合は、古い可能性のある読み込み結果でリングを作らない
+    @Test
+    void evictDuringLoadCancelsLoad() {
+        TimelineCache cache = cache();
+
+        TimelineCache.Loading loading = cache.beginLoad(1L, List.of());
+        cache.evict(1L);
+        cache.load(loading, new long[] {3, 2, 1}, new long[] {30, 20, 10});
+
+        assertNull(cache.page(1L, null, 0, 10));
+    }
+
+    @Test
+    void cancelledLoadStopsRecordingOffers() {
+        TimelineCache cache = cache();
+
+        TimelineCache.Loading loading = cache.beginLoad(1L, List.of());
+        cache.cancelLoad(loading);
+        cache.offer(1L, 4, 40);
+        cache.load(cache.beginLoad(1L, List.of()), new long[] {3}, new long[] {30});
+
+        assertArrayEquals(new long[] {3}, ids(cache.page(1L, null, 0, 10)));
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.ippi.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CountingBloomFilterTest {
+
+    @Test
+    void addedPairIsReportedAndRemovedPairIsNot() {
+        CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01);
+
+        filter.add(1, 2);
+        assertTrue(filter.mightContain(1, 2));
+
+        filter.remove(1, 2);
+        assertFalse(filter.mightContain(1, 2));
+    }
+
+    @Test
+    void pairIsDirectional() {
+        CountingBloomFilter filter = new CountingBloomFilter(1000, 0.001);
+
+        filter.add(1, 2);
+
+        assertFalse(filter.mightContain(2, 1));
+    }
+
+    // 0のカウンタは減らさないため、追加していない組を削除しても負にならない
+    // （負になると、後から追加・削除した組のカウンタが0に戻らず、隣のカウンタも壊れる）
+    @Test
+    void removingAbsentPairDoesNotGoBelowZero() {
+        CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01);
+
+        filter.remove(1, 2);
+        filter.remove(1, 2);
+        filter.add(1, 2);
+        assertTrue(filter.mightContain(1, 2));
+
+        filter.remove(1, 2);
+        assertFalse(filter.mightContain(1, 2));
+        for (long b = 0; b < 100; b++) {
+            assertFalse(filter.mightContain(1, b), "counter of (1, " + b + ") was corrupted");
+        }
+    }
+
+    // 削除した組とカウンタを共有していても、残っている組は必ず含まれていると判定される
+    @Test
+    void noFalseNegativesAfterRemovingOtherPairs() {
+        CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01);
+        for (long a = 0; a < 1000; a++) {
+            filter.add(a, a + 1);
+        }
+
+        for (long a = 0; a < 1000; a += 2) {
+            filter.remove(a, a + 1);
+        }
+
+        for (long a = 1; a < 1000; a += 2) {
+            assertTrue(filter.mightContain(a, a + 1), "false negative for (" + a + ", " + (a + 1) + ")");
+        }
+    }
+
+    // 上限に達したカウンタは減らさないため、想定より多く詰め込んでから削除しても残っている組は含まれる
+    @Test
+    void noFalseNegativesWhenCountersSaturate() {
+        CountingBloomFilter filter = new CountingBloomFilter(1, 0.5);
+        for (long a = 0; a < 200; a++) {
+            filter.add(a, 0);
+        }
+
+        for (long a = 0; a < 200; a += 2) {
+            filter.remove(a, 0);
+        }
+
+        for (long a = 1; a < 200; a += 2) {
+            assertTrue(filter.mightContain(a, 0), "false negative for (" + a + ", 0)");
+        }
+    }
+
+    @Test
+    void repeatedAddAndRemoveCyclesKeepOtherPairs() {
+        CountingBloomFilter filter = new CountingBloomFilter(100, 0.01);
+        filter.add(7, 8);
+
+        for (int i = 0; i < 100; i++) {
+            for (long b = 0; b < 50; b++) {
+                filter.add(1, b);
+            }
+            for (long b = 0; b < 50; b++) {
+                filter.remove(1, b);
+            }
+        }
+
+        assertTrue(filter.mightContain(7, 8));
+    }
+}
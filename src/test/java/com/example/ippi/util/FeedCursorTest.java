@@ -0,0 +1,58 @@
+package com.example.ippi.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FeedCursorTest {
+
+    private static String encodeRaw(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void roundTrip() {
+        FeedCursor decoded = FeedCursor.decode(new FeedCursor(1700000000000L, 42L).encode());
+
+        assertEquals(1700000000000L, decoded.getCreatedAt());
+        assertEquals(42L, decoded.getId());
+    }
+
+    @Test
+    void roundTripExtremeValues() {
+        FeedCursor decoded = FeedCursor.decode(new FeedCursor(Long.MIN_VALUE, Long.MAX_VALUE).encode());
+
+        assertEquals(Long.MIN_VALUE, decoded.getCreatedAt());
+        assertEquals(Long.MAX_VALUE, decoded.getId());
+    }
+
+    // URLにそのまま載せられる文字だけで出力する
+    @Test
+    void encodedCursorIsUrlSafe() {
+        String encoded = new FeedCursor(Long.MAX_VALUE, Long.MAX_VALUE).encode();
+
+        assertEquals(encoded, encoded.replaceAll("[^A-Za-z0-9_-]", ""));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "not a cursor!", "%%%%"})
+    void rejectsInvalidBase64(String cursor) {
+        assertThrows(IllegalArgumentException.class, () -> FeedCursor.decode(cursor));
+    }
+
+    // Base64 としては正しいが中身が改ざんされたもの
+    @ParameterizedTest
+    @ValueSource(strings = {"123", ":42", "abc:42", "123:", "123:abc", "1:2:3", "99999999999999999999:1"})
+    void rejectsTamperedContent(String raw) {
+        String cursor = encodeRaw(raw);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> FeedCursor.decode(cursor));
+        assertEquals("Invalid cursor", e.getMessage());
+    }
+}
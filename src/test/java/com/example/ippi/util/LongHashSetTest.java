@@ -0,0 +1,92 @@
+package com.example.ippi.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongHashSetTest {
+
+    @Test
+    void emptySetContainsNothing() {
+        LongHashSet set = new LongHashSet();
+
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(1));
+    }
+
+    // 0は空きスロットの印と同じ値のため、テーブルの外で管理される
+    @Test
+    void zeroIsStoredSeparatelyFromTable() {
+        LongHashSet set = new LongHashSet();
+
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+
+        assertTrue(set.contains(0));
+        assertFalse(set.contains(1));
+        assertEquals(1, set.size());
+
+        assertTrue(set.add(1));
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(1));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    void duplicateAddIsIgnored() {
+        LongHashSet set = new LongHashSet();
+
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+
+        assertEquals(1, set.size());
+    }
+
+    // 想定件数を大きく超えて追加しても、拡張後にすべて見つかる
+    @Test
+    void keepsAllValuesAcrossResizes() {
+        LongHashSet set = new LongHashSet(1);
+        for (long value = -500; value <= 500; value++) {
+            assertTrue(set.add(value));
+        }
+
+        assertEquals(1001, set.size());
+        for (long value = -500; value <= 500; value++) {
+            assertTrue(set.contains(value), "missing " + value);
+        }
+        assertFalse(set.contains(501));
+        assertFalse(set.contains(-501));
+    }
+
+    // 上位ビットだけが異なる値（ハッシュが衝突しやすい値）も区別される
+    @Test
+    void distinguishesValuesDifferingInHighBits() {
+        LongHashSet set = new LongHashSet();
+        for (int shift = 32; shift < 64; shift++) {
+            set.add(1L << shift);
+        }
+
+        assertEquals(32, set.size());
+        for (int shift = 32; shift < 64; shift++) {
+            assertTrue(set.contains(1L << shift));
+        }
+        assertFalse(set.contains(1L << 31));
+        assertFalse(set.contains(Long.MAX_VALUE));
+    }
+
+    @Test
+    void ofCopiesValuesIncludingZero() {
+        LongHashSet set = LongHashSet.of(List.of(0L, 5L, 5L, Long.MIN_VALUE), 2);
+
+        assertEquals(3, set.size());
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(5));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertFalse(set.contains(6));
+    }
+}
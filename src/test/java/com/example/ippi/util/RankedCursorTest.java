@@ -0,0 +1,44 @@
+package com.example.ippi.util;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RankedCursorTest {
+
+    private static String encodeRaw(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // スコアは丸めずにビット列のまま復元される（同じスコアの境界でページが重複・欠落しない）
+    @ParameterizedTest
+    @ValueSource(doubles = {0.0, -0.0, 1.0 / 3, -12.5, Double.MIN_VALUE, Double.MAX_VALUE, Double.NEGATIVE_INFINITY})
+    void roundTripKeepsExactScore(double score) {
+        RankedCursor decoded = RankedCursor.decode(new RankedCursor(score, 42L).encode());
+
+        assertEquals(Double.doubleToRawLongBits(score), Double.doubleToRawLongBits(decoded.getScore()));
+        assertEquals(42L, decoded.getId());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "not a cursor!", "%%%%"})
+    void rejectsInvalidBase64(String cursor) {
+        assertThrows(IllegalArgumentException.class, () -> RankedCursor.decode(cursor));
+    }
+
+    // Base64 としては正しいが中身が改ざんされたもの
+    @ParameterizedTest
+    @ValueSource(strings = {"3ff0000000000000", ":42", "zz:42", "1.5:42", "3ff0000000000000:", "3ff0000000000000:x",
+        "11111111111111111:42"})
+    void rejectsTamperedContent(String raw) {
+        String cursor = encodeRaw(raw);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> RankedCursor.decode(cursor));
+        assertEquals("Invalid cursor", e.getMessage());
+    }
+}